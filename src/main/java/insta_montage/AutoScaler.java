@@ -0,0 +1,242 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Percentile-based auto-contrast over whole hyperstacks.
+ *
+ * Per-channel histograms are built from every Z/T plane in parallel (one
+ * fork-join task per plane, merged at the end), so a single hot pixel or a
+ * dim current plane no longer decides the display range.
+ */
+public class AutoScaler {
+
+    // Same default as ImageJ's "Auto" contrast: 0.35% saturated, split over both tails
+    public static final double DEFAULT_SATURATION = 0.35;
+
+    // Above this many pixels per channel, subsampling picks a stride automatically
+    private static final long SUBSAMPLE_TARGET = 4_000_000L;
+
+    private static final int FLOAT_BINS = 65536;
+
+    private double saturation = DEFAULT_SATURATION;
+    private boolean subsample = false;
+
+    public AutoScaler setSaturation(double percent) {
+        this.saturation = Math.max(0, Math.min(100, percent));
+        return this;
+    }
+
+    public AutoScaler setSubsample(boolean subsample) {
+        this.subsample = subsample;
+        return this;
+    }
+
+    /**
+     * Returns {min, max} per channel for the given image, or null if the
+     * image type is not supported (RGB).
+     */
+    public double[][] computeRanges(ImagePlus imp) {
+        List<ImagePlus> single = new ArrayList<>();
+        single.add(imp);
+        return computeRanges(single);
+    }
+
+    /**
+     * Returns one shared {min, max} per channel computed over all images
+     * together, or null if any image is RGB or the bit depths differ.
+     */
+    public double[][] computeRanges(List<ImagePlus> images) {
+        Histogram[] histograms = computeHistograms(images);
+        if (histograms == null) return null;
+        double[][] ranges = new double[histograms.length][];
+        for (int c = 0; c < histograms.length; c++) {
+            ranges[c] = histograms[c].percentileRange(saturation);
+        }
+        return ranges;
+    }
+
+    /**
+     * Builds one merged histogram per channel across all Z/T planes of all
+     * given images. Returns null if any image is RGB or the bit depths differ.
+     */
+    public Histogram[] computeHistograms(List<ImagePlus> images) {
+        int channels = 0;
+        int bitDepth = 0;
+        long pixelsPerChannel = 0;
+        for (ImagePlus imp : images) {
+            if (imp.getBitDepth() == 24) return null;
+            if (bitDepth != 0 && imp.getBitDepth() != bitDepth) return null;
+            bitDepth = imp.getBitDepth();
+            channels = Math.max(channels, imp.getNChannels());
+            pixelsPerChannel += (long) imp.getWidth() * imp.getHeight()
+                * imp.getNSlices() * imp.getNFrames();
+        }
+        if (channels == 0) return new Histogram[0];
+
+        int step = 1;
+        if (subsample && pixelsPerChannel > SUBSAMPLE_TARGET) {
+            step = (int) Math.min(Integer.MAX_VALUE,
+                (pixelsPerChannel + SUBSAMPLE_TARGET - 1) / SUBSAMPLE_TARGET);
+        }
+
+        Histogram[] result = new Histogram[channels];
+        for (int c = 1; c <= channels; c++) {
+            List<Plane> planes = collectPlanes(images, c);
+            result[c - 1] = histogramOf(planes, bitDepth, step);
+        }
+        return result;
+    }
+
+    private static List<Plane> collectPlanes(List<ImagePlus> images, int channel) {
+        List<Plane> planes = new ArrayList<>();
+        for (ImagePlus imp : images) {
+            if (channel > imp.getNChannels()) continue;
+            ImageStack stack = imp.getStack();
+            for (int t = 1; t <= imp.getNFrames(); t++) {
+                for (int z = 1; z <= imp.getNSlices(); z++) {
+                    planes.add(new Plane(stack, imp.getStackIndex(channel, z, t)));
+                }
+            }
+        }
+        return planes;
+    }
+
+    private static Histogram histogramOf(List<Plane> planes, int bitDepth, int step) {
+        double min = 0;
+        double binWidth = 1;
+        int bins;
+        if (bitDepth == 8) {
+            bins = 256;
+        } else if (bitDepth == 16) {
+            bins = 65536;
+        } else {
+            // Float planes need the value range before they can be binned
+            double[] range = planes.parallelStream()
+                .map(p -> floatRange((float[]) p.pixels(), step))
+                .reduce(new double[]{Double.MAX_VALUE, -Double.MAX_VALUE},
+                    (a, b) -> new double[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+            if (range[0] > range[1]) range = new double[]{0, 1};
+            min = range[0];
+            bins = FLOAT_BINS;
+            binWidth = range[1] > range[0] ? (range[1] - range[0]) / (bins - 1) : 1;
+        }
+
+        final double binMin = min;
+        final double binScale = 1.0 / binWidth;
+        final int nBins = bins;
+        long[] counts = planes.parallelStream().collect(
+            () -> new long[nBins],
+            (acc, p) -> accumulate(acc, p.pixels(), step, binMin, binScale),
+            (a, b) -> { for (int i = 0; i < a.length; i++) a[i] += b[i]; });
+        return new Histogram(counts, min, binWidth);
+    }
+
+    private static void accumulate(long[] counts, Object pixels, int step,
+                                   double min, double scale) {
+        if (pixels instanceof byte[]) {
+            byte[] px = (byte[]) pixels;
+            for (int i = 0; i < px.length; i += step) counts[px[i] & 0xff]++;
+        } else if (pixels instanceof short[]) {
+            short[] px = (short[]) pixels;
+            for (int i = 0; i < px.length; i += step) counts[px[i] & 0xffff]++;
+        } else if (pixels instanceof float[]) {
+            float[] px = (float[]) pixels;
+            int last = counts.length - 1;
+            for (int i = 0; i < px.length; i += step) {
+                float v = px[i];
+                if (Float.isNaN(v)) continue;
+                int bin = (int) ((v - min) * scale);
+                if (bin < 0) bin = 0;
+                if (bin > last) bin = last;
+                counts[bin]++;
+            }
+        }
+    }
+
+    private static double[] floatRange(float[] px, int step) {
+        double lo = Double.MAX_VALUE;
+        double hi = -Double.MAX_VALUE;
+        for (int i = 0; i < px.length; i += step) {
+            float v = px[i];
+            if (Float.isNaN(v)) continue;
+            if (v < lo) lo = v;
+            if (v > hi) hi = v;
+        }
+        return new double[]{lo, hi};
+    }
+
+    // --- One stack plane, read lazily by whichever worker picks it up ---
+    private static class Plane {
+        private final ImageStack stack;
+        private final int index;
+
+        Plane(ImageStack stack, int index) {
+            this.stack = stack;
+            this.index = index;
+        }
+
+        Object pixels() {
+            return stack.getPixels(index);
+        }
+    }
+
+    // --- Merged intensity histogram for one channel ---
+    public static class Histogram {
+
+        private final long[] counts;
+        private final double min;
+        private final double binWidth;
+        private final long total;
+
+        public Histogram(long[] counts, double min, double binWidth) {
+            this.counts = counts;
+            this.min = min;
+            this.binWidth = binWidth;
+            long sum = 0;
+            for (long n : counts) sum += n;
+            this.total = sum;
+        }
+
+        public long[] getCounts() {
+            return counts;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getBinWidth() {
+            return binWidth;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        /** Value range with {@code percent} of all pixels saturated, half at each end. */
+        public double[] percentileRange(double percent) {
+            if (total == 0) return new double[]{min, min + binWidth * (counts.length - 1)};
+            long threshold = (long) (total * percent / 200.0);
+
+            int lo = 0;
+            long sum = 0;
+            for (; lo < counts.length - 1; lo++) {
+                sum += counts[lo];
+                if (sum > threshold) break;
+            }
+            int hi = counts.length - 1;
+            sum = 0;
+            for (; hi > 0; hi--) {
+                sum += counts[hi];
+                if (sum > threshold) break;
+            }
+            if (hi < lo) hi = lo;
+            return new double[]{min + lo * binWidth, min + hi * binWidth};
+        }
+    }
+}
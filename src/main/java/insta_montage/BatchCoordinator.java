@@ -0,0 +1,301 @@
+package insta_montage;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits a list of montage jobs across several worker JVMs on this machine,
+ * each with a modest heap, so throughput scales with cores without one
+ * large heap stalling on GC.
+ *
+ * Jobs are dealt round-robin into one deque per worker. A worker takes
+ * from the head of its own deque and, once that is empty, steals from the
+ * tail of the others. If a worker process dies mid-job, the job is put back
+ * and the process is restarted; a job is given up after MAX_ATTEMPTS.
+ * A worker that does not answer within the job timeout is killed and
+ * handled the same way.
+ */
+public class BatchCoordinator {
+
+    public static final int MAX_ATTEMPTS = 3;
+
+    /** Default seconds a worker may spend on one job, see setJobTimeout. */
+    public static final int DEFAULT_JOB_TIMEOUT_S = 600;
+
+    /** One montage: the output TIFF and its input images in tile order. */
+    public static class Job {
+        final int id;
+        final String output;
+        final List<String> inputs;
+        int attempts;
+
+        public Job(int id, String output, List<String> inputs) {
+            this.id = id;
+            this.output = output;
+            this.inputs = new ArrayList<>(inputs);
+        }
+    }
+
+    /** Outcome of one job as reported by its worker. */
+    public static class JobResult {
+        public final int id;
+        public final String output;
+        public final boolean ok;
+        public final String message;
+        public final int worker;
+        public final long millis;
+        public final int attempts;
+
+        JobResult(Job job, boolean ok, String message, int worker, long millis) {
+            this.id = job.id;
+            this.output = job.output;
+            this.ok = ok;
+            this.message = message;
+            this.worker = worker;
+            this.millis = millis;
+            this.attempts = job.attempts;
+        }
+    }
+
+    private final MontageSettings settings;
+    private final int workers;
+    private final int heapMB;
+    private long jobTimeoutMillis = defaultJobTimeoutSeconds() * 1000L;
+
+    private List<ConcurrentLinkedDeque<Job>> queues;
+    private ScheduledExecutorService watchdog;
+    private final List<JobResult> results = Collections.synchronizedList(new ArrayList<>());
+
+    public BatchCoordinator(MontageSettings settings, int workers, int heapMB) {
+        this.settings = settings;
+        this.workers = Math.max(1, workers);
+        this.heapMB = Math.max(64, heapMB);
+    }
+
+    /**
+     * Seconds a worker may take for one job before it is killed and the job
+     * retried; 0 waits forever. Defaults to the insta_montage.jobTimeout
+     * system property, or DEFAULT_JOB_TIMEOUT_S.
+     */
+    public void setJobTimeout(int seconds) {
+        jobTimeoutMillis = Math.max(0, seconds) * 1000L;
+    }
+
+    public static int defaultJobTimeoutSeconds() {
+        String s = System.getProperty("insta_montage.jobTimeout");
+        if (s != null) {
+            try {
+                return Math.max(0, Integer.parseInt(s.trim()));
+            } catch (NumberFormatException e) {
+                // Fall back to the default
+            }
+        }
+        return DEFAULT_JOB_TIMEOUT_S;
+    }
+
+    /**
+     * Reads a job list: one montage per line, tab separated, output path
+     * first and then the input images. Blank lines and # comments are skipped.
+     */
+    public static List<Job> readJobs(File file) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\t");
+            List<String> inputs = new ArrayList<>();
+            for (int i = 1; i < parts.length; i++) inputs.add(parts[i]);
+            jobs.add(new Job(jobs.size() + 1, parts[0], inputs));
+        }
+        return jobs;
+    }
+
+    /** Runs all jobs and returns their results ordered by job id. */
+    public List<JobResult> run(List<Job> jobs) throws IOException, InterruptedException {
+        File settingsFile = File.createTempFile("insta_montage_settings", MontageRecipe.EXTENSION);
+        settingsFile.deleteOnExit();
+        MontageRecipe.save(settings, settingsFile);
+
+        queues = new ArrayList<>();
+        for (int w = 0; w < workers; w++) queues.add(new ConcurrentLinkedDeque<>());
+        for (int i = 0; i < jobs.size(); i++) queues.get(i % workers).add(jobs.get(i));
+
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Insta Montage batch watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.currentTimeMillis();
+        List<Thread> threads = new ArrayList<>();
+        try {
+            for (int w = 0; w < workers; w++) {
+                final int index = w;
+                Thread t = new Thread(() -> drive(index, settingsFile), "Insta Montage batch worker " + w);
+                t.start();
+                threads.add(t);
+            }
+            for (Thread t : threads) t.join();
+        } finally {
+            watchdog.shutdownNow();
+        }
+        long wall = System.currentTimeMillis() - start;
+
+        List<JobResult> merged = new ArrayList<>(results);
+        merged.sort(Comparator.comparingInt(r -> r.id));
+        long ok = merged.stream().filter(r -> r.ok).count();
+        long busy = merged.stream().mapToLong(r -> r.millis).sum();
+        IJ.log("Insta Montage batch: " + ok + "/" + jobs.size() + " montages in " + wall
+            + " ms on " + workers + " workers (" + busy + " ms summed render time)");
+        return merged;
+    }
+
+    // Feeds jobs to one worker process, restarting it if it dies
+    private void drive(int index, File settingsFile) {
+        WorkerProcess proc = null;
+        Job job;
+        while ((job = nextJob(index)) != null) {
+            job.attempts++;
+            try {
+                if (proc == null) proc = new WorkerProcess(settingsFile);
+                String reply = proc.submit(job);
+                if (reply == null) throw new IOException("worker exited");
+                if (reply.isEmpty()) throw new IOException("no reply within " + jobTimeoutMillis / 1000 + " s");
+                String[] parts = reply.split(" ", 3);
+                boolean ok = parts[0].equals(BatchWorker.REPLY_PREFIX + "DONE");
+                long millis = ok && parts.length > 2 ? Long.parseLong(parts[2].trim()) : 0;
+                results.add(new JobResult(job, ok, ok ? "" : (parts.length > 2 ? parts[2] : ""), index, millis));
+            } catch (IOException | RuntimeException e) {
+                // Worker crashed or hung: retry the job on a fresh process
+                if (proc != null) proc.destroy();
+                proc = null;
+                if (job.attempts < MAX_ATTEMPTS) {
+                    queues.get(index).addFirst(job);
+                } else {
+                    results.add(new JobResult(job, false, "worker crashed: " + e.getMessage(), index, 0));
+                }
+            }
+        }
+        if (proc != null) proc.close();
+    }
+
+    // Own queue first (head), then steal from the tail of the others
+    private Job nextJob(int index) {
+        Job job = queues.get(index).pollFirst();
+        if (job != null) return job;
+        for (int k = 1; k < workers; k++) {
+            job = queues.get((index + k) % workers).pollLast();
+            if (job != null) return job;
+        }
+        return null;
+    }
+
+    // --- One worker JVM and its stdin/stdout protocol ---
+    private class WorkerProcess {
+
+        private final Process process;
+        private final PrintWriter in;
+        private final BufferedReader out;
+
+        WorkerProcess(File settingsFile) throws IOException {
+            List<String> cmd = new ArrayList<>();
+            cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+            cmd.add("-Xmx" + heapMB + "m");
+            cmd.add("-Djava.awt.headless=true");
+            cmd.add("-cp");
+            cmd.add(classPath());
+            cmd.add(BatchWorker.class.getName());
+            cmd.add(settingsFile.getPath());
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = pb.start();
+            in = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8), true);
+            out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        // Returns the worker's reply for this job, null if it exited, or ""
+        // if it was killed for missing the job timeout
+        String submit(Job job) throws IOException {
+            StringBuilder sb = new StringBuilder("JOB ").append(job.id).append('\t').append(job.output);
+            for (String input : job.inputs) sb.append('\t').append(input);
+            in.println(sb);
+            if (in.checkError()) return null;
+            // Killing the process closes its stdout, which ends the read below
+            boolean[] timedOut = new boolean[1];
+            ScheduledFuture<?> deadline = jobTimeoutMillis <= 0 ? null : watchdog.schedule(() -> {
+                synchronized (timedOut) {
+                    timedOut[0] = true;
+                }
+                process.destroyForcibly();
+            }, jobTimeoutMillis, TimeUnit.MILLISECONDS);
+            String reply = null;
+            try {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    if (line.startsWith(BatchWorker.REPLY_PREFIX)) {
+                        reply = line;
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (timedOut) {
+                    if (!timedOut[0]) throw e;
+                }
+            } finally {
+                if (deadline != null) deadline.cancel(false);
+            }
+            if (reply != null) return reply;
+            synchronized (timedOut) {
+                return timedOut[0] ? "" : null;
+            }
+        }
+
+        void close() {
+            in.close();
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroy();
+            }
+        }
+
+        void destroy() {
+            process.destroy();
+        }
+    }
+
+    // Plugin and ImageJ jars, which may not be on java.class.path inside Fiji
+    private static String classPath() {
+        Set<String> entries = new LinkedHashSet<>();
+        for (Class<?> c : new Class<?>[]{BatchWorker.class, ImagePlus.class}) {
+            try {
+                entries.add(new File(c.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+            } catch (URISyntaxException | NullPointerException | SecurityException e) {
+                // Fall back to the JVM class path below
+            }
+        }
+        String jvm = System.getProperty("java.class.path");
+        if (jvm != null && !jvm.isEmpty()) entries.add(jvm);
+        return String.join(File.pathSeparator, entries);
+    }
+}
@@ -0,0 +1,53 @@
+package insta_montage;
+
+import ij.IJ;
+import ij.gui.GenericDialog;
+import ij.plugin.PlugIn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class BatchPlugin implements PlugIn {
+
+    public void run(String arg) {
+        GenericDialog gd = new GenericDialog(Main.PLUGIN_NAME + " Batch");
+        gd.addFileField("Job list:", "");
+        gd.addFileField("Recipe (optional):", "");
+        gd.addNumericField("Worker processes:", Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 0);
+        gd.addNumericField("Heap per worker (MB):", 1024, 0);
+        gd.addNumericField("Job timeout (s, 0 = none):", BatchCoordinator.defaultJobTimeoutSeconds(), 0);
+        gd.addMessage("One montage per line, tab separated: output.tif, then the input images.\n"
+            + "Montages use the recipe if one is given, otherwise the settings of the\n"
+            + "open Insta Montage dialog.");
+        gd.showDialog();
+        if (gd.wasCanceled()) return;
+
+        File jobFile = new File(gd.getNextString());
+        String recipe = gd.getNextString().trim();
+        int workers = (int) gd.getNextNumber();
+        int heapMB = (int) gd.getNextNumber();
+        int timeout = (int) gd.getNextNumber();
+        if (!jobFile.isFile()) {
+            IJ.error(Main.PLUGIN_NAME, "Job list not found: " + jobFile);
+            return;
+        }
+
+        try {
+            List<BatchCoordinator.Job> jobs = BatchCoordinator.readJobs(jobFile);
+            MontageSettings settings = recipe.isEmpty()
+                ? MontageDialog.getCurrentSettings() : MontageRecipe.load(new File(recipe));
+            BatchCoordinator coordinator = new BatchCoordinator(settings, workers, heapMB);
+            coordinator.setJobTimeout(timeout);
+            for (BatchCoordinator.JobResult r : coordinator.run(jobs)) {
+                IJ.log("  #" + r.id + " " + (r.ok ? "ok" : "FAILED " + r.message)
+                    + "  " + r.millis + " ms  worker " + r.worker
+                    + (r.attempts > 1 ? "  attempts " + r.attempts : "") + "  " + r.output);
+            }
+        } catch (IOException e) {
+            IJ.error(Main.PLUGIN_NAME, "Batch failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.ColorProcessor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Worker JVM for {@link BatchCoordinator}. Renders one job per line read
+ * from stdin and answers on stdout.
+ *
+ * Usage: {@code BatchWorker <recipe file>}. Each request line is
+ * {@code JOB <id>\t<output>\t<input>...}; each reply is
+ * {@code @@DONE <id> <millis>} or {@code @@FAIL <id> <message>}. Other stdout
+ * lines (e.g. IJ.log in headless mode) are ignored by the coordinator.
+ * Jobs with the same tile count and source size reuse one RenderPlan.
+ */
+public class BatchWorker {
+
+    static final String REPLY_PREFIX = "@@";
+
+    // Layout of the previous job, reused while it fits
+    private static RenderPlan plan;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: BatchWorker <recipe file>");
+            System.exit(2);
+        }
+        MontageSettings settings = MontageRecipe.load(new File(args[0]));
+
+        PrintStream out = new PrintStream(System.out, true, "UTF-8");
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!line.startsWith("JOB ")) continue;
+            String[] parts = line.substring(4).split("\t");
+            String id = parts[0];
+            try {
+                long start = System.currentTimeMillis();
+                render(parts, settings);
+                out.println(REPLY_PREFIX + "DONE " + id + " " + (System.currentTimeMillis() - start));
+            } catch (Exception e) {
+                out.println(REPLY_PREFIX + "FAIL " + id + " " + String.valueOf(e.getMessage()).replace('\n', ' '));
+            }
+        }
+    }
+
+    private static void render(String[] parts, MontageSettings settings) throws IOException {
+        if (parts.length < 3) throw new IOException("job has no input images");
+        // Inputs are read plane by plane as their tiles come up
+        LazySource[] sources = new LazySource[parts.length - 2];
+        for (int i = 0; i < sources.length; i++) sources[i] = new LazySource(parts[i + 2]);
+        ColorProcessor canvas;
+        try {
+            MontageProcessor processor = new MontageProcessor(sources, settings);
+            processor.setPlan(plan);
+            canvas = processor.render();
+            plan = processor.getPlan();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (!new FileSaver(new ImagePlus("Insta Montage", canvas)).saveAsTiff(parts[1])) {
+            throw new IOException("could not save " + parts[1]);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package insta_montage;
+
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import ij.process.ImageStatistics;
+
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Background-computed, pre-rendered channel histograms for the LUT Adjuster.
+ *
+ * Entries are keyed by image ID, channel and stack plane. imageUpdated() only
+ * marks an image's entries stale; a stale entry is revalidated against a
+ * sparse pixel signature on the next request, so LUT-only redraws do not
+ * throw away histograms whose pixels have not changed.
+ *
+ * The cache holds at most MAX_ENTRIES histograms, least recently used first
+ * out, and only weak references to plane arrays, so it never keeps a closed
+ * or replaced plane alive. Closing an image drops its entries.
+ */
+public class HistogramCache implements ImageListener {
+
+    public static final int HIST_W = 256;
+    public static final int HIST_H = 40;
+
+    // Pixels sampled for the staleness signature
+    private static final int SIGNATURE_SAMPLES = 1024;
+
+    // About 40 KB per entry, so roughly 10 MB at most
+    static final int MAX_ENTRIES = 256;
+
+    // Access-ordered; guarded by itself
+    private final Map<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, HistogramCache.Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "LUT Adjuster histograms");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public HistogramCache() {
+        ImagePlus.addImageListener(this);
+    }
+
+    /**
+     * Delivers the histogram image for the displayed Z/T plane of the given
+     * channel to {@code callback} on the EDT, computing it in the background
+     * if needed.
+     */
+    public void request(ImagePlus imp, int channel, Color color,
+                        Consumer<BufferedImage> callback) {
+        int index = imp.getStackIndex(channel, imp.getZ(), imp.getT());
+        String key = imp.getID() + ":" + channel + ":" + index;
+        ImageStack stack = imp.getStack();
+
+        Entry cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached != null && !cached.stale && cached.color.equals(color)) {
+            callback.accept(cached.image);
+            return;
+        }
+
+        worker.submit(() -> {
+            Object pixels = stack.getPixels(index);
+            long signature = signature(pixels);
+            Entry entry;
+            synchronized (entries) {
+                entry = entries.get(key);
+            }
+            if (entry == null || entry.pixels.get() != pixels || entry.signature != signature) {
+                long[] counts = binCounts(stack.getProcessor(index), imp.getBitDepth());
+                entry = new Entry(pixels, signature, color, counts, render(counts, color));
+            } else if (!entry.color.equals(color)) {
+                entry = new Entry(pixels, signature, color, entry.counts,
+                    render(entry.counts, color));
+            } else {
+                entry.stale = false;
+            }
+            synchronized (entries) {
+                entries.put(key, entry);
+            }
+            BufferedImage image = entry.image;
+            SwingUtilities.invokeLater(() -> callback.accept(image));
+        });
+    }
+
+    public void dispose() {
+        ImagePlus.removeImageListener(this);
+        worker.shutdownNow();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public void imageOpened(ImagePlus imp) {
+    }
+
+    @Override
+    public void imageClosed(ImagePlus imp) {
+        String prefix = imp.getID() + ":";
+        Runnable drop = () -> {
+            synchronized (entries) {
+                entries.keySet().removeIf(k -> k.startsWith(prefix));
+            }
+        };
+        drop.run();
+        // Again after queued requests, which would otherwise re-add entries
+        if (!worker.isShutdown()) worker.submit(drop);
+    }
+
+    @Override
+    public void imageUpdated(ImagePlus imp) {
+        String prefix = imp.getID() + ":";
+        synchronized (entries) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (e.getKey().startsWith(prefix)) e.getValue().stale = true;
+            }
+        }
+    }
+
+    // Integer planes are binned over their full range, matching the sliders;
+    // float planes over their own min..max
+    private static long[] binCounts(ImageProcessor ip, int bitDepth) {
+        long[] bins = new long[HIST_W];
+        if (bitDepth == 8 || bitDepth == 16) {
+            int[] hist = ip.getHistogram();
+            double scale = (double) HIST_W / hist.length;
+            for (int v = 0; v < hist.length; v++) {
+                bins[Math.min(HIST_W - 1, (int) (v * scale))] += hist[v];
+            }
+        } else {
+            ip.setHistogramSize(HIST_W);
+            ImageStatistics stats = ip.getStats();
+            int[] hist = stats.histogram;
+            for (int i = 0; i < HIST_W && i < hist.length; i++) bins[i] = hist[i];
+        }
+        return bins;
+    }
+
+    private static BufferedImage render(long[] bins, Color color) {
+        BufferedImage bi = new BufferedImage(HIST_W, HIST_H, BufferedImage.TYPE_INT_ARGB);
+        long peak = 1;
+        for (long n : bins) peak = Math.max(peak, n);
+        double logPeak = Math.log1p(peak);
+        int argb = (90 << 24) | (color.getRGB() & 0xffffff);
+        int[] data = new int[HIST_W * HIST_H];
+        for (int x = 0; x < HIST_W; x++) {
+            // Log scale so sparse bright tails are still visible
+            int h = (int) Math.round(HIST_H * Math.log1p(bins[x]) / logPeak);
+            for (int y = HIST_H - h; y < HIST_H; y++) data[y * HIST_W + x] = argb;
+        }
+        bi.setRGB(0, 0, HIST_W, HIST_H, data, 0, HIST_W);
+        return bi;
+    }
+
+    private static long signature(Object pixels) {
+        int length = java.lang.reflect.Array.getLength(pixels);
+        int step = Math.max(1, length / SIGNATURE_SAMPLES);
+        long h = 1125899906842597L;
+        if (pixels instanceof byte[]) {
+            byte[] px = (byte[]) pixels;
+            for (int i = 0; i < length; i += step) h = 31 * h + px[i];
+        } else if (pixels instanceof short[]) {
+            short[] px = (short[]) pixels;
+            for (int i = 0; i < length; i += step) h = 31 * h + px[i];
+        } else if (pixels instanceof float[]) {
+            float[] px = (float[]) pixels;
+            for (int i = 0; i < length; i += step) h = 31 * h + Float.floatToIntBits(px[i]);
+        } else if (pixels instanceof int[]) {
+            int[] px = (int[]) pixels;
+            for (int i = 0; i < length; i += step) h = 31 * h + px[i];
+        }
+        return h;
+    }
+
+    // --- One cached histogram ---
+    private static class Entry {
+        final WeakReference<Object> pixels;
+        final long signature;
+        final Color color;
+        final long[] counts;
+        final BufferedImage image;
+        volatile boolean stale;
+
+        Entry(Object pixels, long signature, Color color, long[] counts, BufferedImage image) {
+            this.pixels = new WeakReference<>(pixels);
+            this.signature = signature;
+            this.color = color;
+            this.counts = counts;
+            this.image = image;
+        }
+    }
+}
@@ -11,6 +11,7 @@ import javax.swing.border.TitledBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
 import ij.CompositeImage;
@@ -22,7 +23,17 @@ public class LUTAdjusterDialog extends JFrame {
     private JPanel channelsPanel;
     private JButton refreshButton;
     private JButton autoScaleButton;
+    private JButton applyToSetButton;
+    private JButton autoScaleSetButton;
     private List<ChannelAdjuster> adjusters = new ArrayList<>();
+    private final HistogramCache histogramCache = new HistogramCache();
+
+    // Image the current adjuster panels were built for
+    private int adjustersImageID = 0;
+    private int adjustersBitDepth = 0;
+
+    // Minimum interval between live redraws while a slider is dragged (~60 Hz)
+    private static final int FRAME_MILLIS = 16;
 
     public LUTAdjusterDialog() {
         super("LUT Adjuster");
@@ -60,7 +71,18 @@ public class LUTAdjusterDialog extends JFrame {
         autoScaleButton.setFont(autoScaleButton.getFont().deriveFont(Font.BOLD));
         buttonPanel.add(refreshButton);
         buttonPanel.add(autoScaleButton);
-        add(buttonPanel, BorderLayout.SOUTH);
+
+        // --- Montage set buttons ---
+        JPanel montageSetPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 4));
+        applyToSetButton = new JButton("Apply to Montage Set");
+        autoScaleSetButton = new JButton("Auto Scale Montage Set");
+        montageSetPanel.add(applyToSetButton);
+        montageSetPanel.add(autoScaleSetButton);
+
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(montageSetPanel, BorderLayout.NORTH);
+        southPanel.add(buttonPanel, BorderLayout.SOUTH);
+        add(southPanel, BorderLayout.SOUTH);
 
         // --- Button actions ---
         refreshButton.addActionListener(e -> refresh());
@@ -71,73 +93,144 @@ public class LUTAdjusterDialog extends JFrame {
                 IJ.error("LUT Adjuster", "No active image.");
                 return;
             }
-            int channels = imp.getNChannels();
-            if (imp.isComposite()) {
-                CompositeImage ci = (CompositeImage) imp;
-                for (int c = 1; c <= channels; c++) {
-                    int stackIndex = imp.getStackIndex(c, imp.getZ(), imp.getT());
-                    ij.process.ImageProcessor ip = imp.getStack().getProcessor(stackIndex);
-                    ImageStatistics stats = ImageStatistics.getStatistics(
-                        ip, Measurements.MIN_MAX, null);
-                    LUT lut = ci.getChannelLut(c);
-                    lut.min = stats.min;
-                    lut.max = stats.max;
-                    ci.setChannelLut(lut, c);
-                }
-            } else {
-                ij.process.ImageStatistics stats = ImageStatistics.getStatistics(
-                    imp.getProcessor(), Measurements.MIN_MAX, null);
-                imp.getProcessor().setMinAndMax(stats.min, stats.max);
+            autoScaleButton.setEnabled(false);
+            // Histograms over the whole hyperstack are built off the EDT
+            new Thread(() -> {
+                AutoScaler scaler = new AutoScaler().setSubsample(true);
+                double[][] ranges = scaler.computeRanges(imp);
+                SwingUtilities.invokeLater(() -> {
+                    applyRanges(imp, ranges);
+                    autoScaleButton.setEnabled(true);
+                    refresh();
+                });
+            }, "LUT Adjuster auto scale").start();
+        });
+
+        applyToSetButton.addActionListener(e -> {
+            ImagePlus imp = WindowManager.getCurrentImage();
+            if (imp == null) {
+                IJ.error("LUT Adjuster", "No active image.");
+                return;
             }
-            imp.updateAndDraw();
-            refresh();
+            List<ImagePlus> targets = MontageDialog.getMontageSet();
+            int updated = LUTPropagator.apply(
+                targets, LUTPropagator.readRanges(imp), imp.getBitDepth());
+            IJ.showStatus("LUT Adjuster: ranges applied to " + updated + " of "
+                + targets.size() + " images");
+        });
+
+        autoScaleSetButton.addActionListener(e -> {
+            List<ImagePlus> targets = MontageDialog.getMontageSet();
+            if (targets.isEmpty()) {
+                IJ.error("LUT Adjuster", "No images open.");
+                return;
+            }
+            autoScaleSetButton.setEnabled(false);
+            new Thread(() -> {
+                int updated = LUTPropagator.autoScale(targets);
+                SwingUtilities.invokeLater(() -> {
+                    autoScaleSetButton.setEnabled(true);
+                    if (updated < 0) {
+                        IJ.error("LUT Adjuster",
+                            "Montage set images must share one non-RGB bit depth.");
+                        return;
+                    }
+                    refresh();
+                });
+            }, "LUT Adjuster montage set auto scale").start();
         });
 
         pack();
         setLocationRelativeTo(null);
     }
 
-    public void refresh() {
-        channelsPanel.removeAll();
-        adjusters.clear();
+    private void applyRanges(ImagePlus imp, double[][] ranges) {
+        if (ranges == null) {
+            // RGB: fall back to the min/max of the displayed plane
+            ImageStatistics stats = ImageStatistics.getStatistics(
+                imp.getProcessor(), Measurements.MIN_MAX, null);
+            imp.getProcessor().setMinAndMax(stats.min, stats.max);
+        } else if (imp.isComposite()) {
+            CompositeImage ci = (CompositeImage) imp;
+            for (int c = 1; c <= ranges.length; c++) {
+                LUT lut = ci.getChannelLut(c);
+                lut.min = ranges[c - 1][0];
+                lut.max = ranges[c - 1][1];
+                ci.setChannelLut(lut, c);
+            }
+        } else if (ranges.length > 0) {
+            imp.setDisplayRange(ranges[0][0], ranges[0][1]);
+        }
+        imp.updateAndDraw();
+    }
 
+    public void refresh() {
         ImagePlus imp = WindowManager.getCurrentImage();
 
         if (imp == null) {
+            adjusters.clear();
+            adjustersImageID = 0;
+            channelsPanel.removeAll();
             JLabel noImage = new JLabel("No image open.", SwingConstants.CENTER);
             noImage.setBorder(BorderFactory.createEmptyBorder(20, 0, 20, 0));
             channelsPanel.add(noImage);
-        } else {
-            int channels = imp.getNChannels();
-            int bitDepth = imp.getBitDepth();
-            double maxPossible = Math.pow(2, bitDepth) - 1;
-            if (bitDepth == 32) maxPossible = 1.0; // float images
-
-            for (int c = 1; c <= channels; c++) {
-                // Get current min/max for this channel
-                imp.setC(c);
-                double currentMin = imp.getProcessor().getMin();
-                double currentMax = imp.getProcessor().getMax();
-
-                // Get channel color from LUT
-                Color channelColor = getChannelColor(imp, c);
-
-                ChannelAdjuster adjuster = new ChannelAdjuster(
+            channelsPanel.revalidate();
+            channelsPanel.repaint();
+            pack();
+            return;
+        }
+
+        int channels = imp.getNChannels();
+        int bitDepth = imp.getBitDepth();
+        double maxPossible = Math.pow(2, bitDepth) - 1;
+        if (bitDepth == 32) maxPossible = 1.0; // float images
+
+        // Same image layout as last time: update the existing panels in place
+        boolean reuse = imp.getID() == adjustersImageID
+            && bitDepth == adjustersBitDepth
+            && channels == adjusters.size();
+        if (!reuse) {
+            channelsPanel.removeAll();
+            adjusters.clear();
+        }
+
+        // Read ranges from the channel LUTs; no setC(), so no repaint
+        // and the displayed channel stays where the user left it
+        double[][] ranges = LUTPropagator.readRanges(imp);
+        LUT[] luts = imp.getLuts();
+        for (int c = 1; c <= channels; c++) {
+            double currentMin = ranges[c - 1][0];
+            double currentMax = ranges[c - 1][1];
+
+            // Get channel color from LUT
+            Color channelColor = getChannelColor(luts, c);
+
+            ChannelAdjuster adjuster;
+            if (reuse) {
+                adjuster = adjusters.get(c - 1);
+                adjuster.setState(channelColor, currentMin, currentMax);
+            } else {
+                adjuster = new ChannelAdjuster(
                     imp, c, channelColor, currentMin, currentMax, maxPossible);
                 adjusters.add(adjuster);
                 channelsPanel.add(adjuster.getPanel());
                 channelsPanel.add(Box.createVerticalStrut(6));
             }
+            histogramCache.request(imp, c, channelColor, adjuster::setHistogram);
         }
 
-        channelsPanel.revalidate();
-        channelsPanel.repaint();
-        pack();
+        if (!reuse) {
+            adjustersImageID = imp.getID();
+            adjustersBitDepth = bitDepth;
+            channelsPanel.revalidate();
+            channelsPanel.repaint();
+            pack();
+        }
     }
 
-    private Color getChannelColor(ImagePlus imp, int channel) {
+    private Color getChannelColor(LUT[] luts, int channel) {
         try {
-            LUT lut = imp.getLuts()[channel - 1];
+            LUT lut = luts[channel - 1];
             // Sample the color from the end of the LUT (brightest value)
             int r = lut.getRed(255);
             int g = lut.getGreen(255);
@@ -162,6 +255,12 @@ public class LUTAdjusterDialog extends JFrame {
         toFront();
     }
 
+    @Override
+    public void dispose() {
+        histogramCache.dispose();
+        super.dispose();
+    }
+
     // --- Inner class representing one channel's min/max adjuster ---
     private static class ChannelAdjuster {
 
@@ -172,6 +271,8 @@ public class LUTAdjusterDialog extends JFrame {
         private final JLabel minValueLabel;
         private final JLabel maxValueLabel;
         private final JPanel panel;
+        private final HistogramBackdrop histogramBackdrop;
+        private final Timer redrawTimer;
         private boolean updating = false;
 
         public ChannelAdjuster(ImagePlus imp, int channel, Color color,
@@ -193,15 +294,28 @@ public class LUTAdjusterDialog extends JFrame {
             gbc.fill = GridBagConstraints.HORIZONTAL;
             gbc.insets = new Insets(2, 4, 2, 4);
 
+            // --- Sliders, drawn over the channel histogram ---
+            histogramBackdrop = new HistogramBackdrop();
+            histogramBackdrop.setLayout(new GridLayout(2, 1, 0, 4));
+            minSlider = new JSlider(minVal, maxVal, (int) currentMin);
+            minSlider.setPreferredSize(new Dimension(200, 20));
+            minSlider.setOpaque(false);
+            maxSlider = new JSlider(minVal, maxVal, (int) currentMax);
+            maxSlider.setPreferredSize(new Dimension(200, 20));
+            maxSlider.setOpaque(false);
+            histogramBackdrop.add(minSlider);
+            histogramBackdrop.add(maxSlider);
+
+            gbc.gridx = 1; gbc.gridy = 0; gbc.gridheight = 2; gbc.weightx = 1.0;
+            gbc.fill = GridBagConstraints.BOTH;
+            panel.add(histogramBackdrop, gbc);
+            gbc.gridheight = 1;
+            gbc.fill = GridBagConstraints.HORIZONTAL;
+
             // --- Min row ---
             gbc.gridx = 0; gbc.gridy = 0; gbc.weightx = 0;
             panel.add(new JLabel("Min:"), gbc);
 
-            gbc.gridx = 1; gbc.weightx = 1.0;
-            minSlider = new JSlider(minVal, maxVal, (int) currentMin);
-            minSlider.setPreferredSize(new Dimension(200, 20));
-            panel.add(minSlider, gbc);
-
             gbc.gridx = 2; gbc.weightx = 0;
             minValueLabel = new JLabel(String.valueOf((int) currentMin));
             minValueLabel.setPreferredSize(new Dimension(50, 20));
@@ -211,16 +325,17 @@ public class LUTAdjusterDialog extends JFrame {
             gbc.gridx = 0; gbc.gridy = 1; gbc.weightx = 0;
             panel.add(new JLabel("Max:"), gbc);
 
-            gbc.gridx = 1; gbc.weightx = 1.0;
-            maxSlider = new JSlider(minVal, maxVal, (int) currentMax);
-            maxSlider.setPreferredSize(new Dimension(200, 20));
-            panel.add(maxSlider, gbc);
-
             gbc.gridx = 2; gbc.weightx = 0;
             maxValueLabel = new JLabel(String.valueOf((int) currentMax));
             maxValueLabel.setPreferredSize(new Dimension(50, 20));
             panel.add(maxValueLabel, gbc);
 
+            // Coalesces redraws while dragging: at most one per display frame,
+            // always using the latest slider values
+            redrawTimer = new Timer(FRAME_MILLIS, e -> applyLUT());
+            redrawTimer.setRepeats(false);
+            redrawTimer.setCoalesce(true);
+
             // --- Live update listeners ---
             minSlider.addChangeListener(e -> {
                 if (updating) return;
@@ -231,7 +346,7 @@ public class LUTAdjusterDialog extends JFrame {
                 }
                 minValueLabel.setText(String.valueOf(minSlider.getValue()));
                 maxValueLabel.setText(String.valueOf(maxSlider.getValue()));
-                applyLUT();
+                scheduleLUT(minSlider.getValueIsAdjusting());
                 updating = false;
             });
 
@@ -244,11 +359,23 @@ public class LUTAdjusterDialog extends JFrame {
                 }
                 minValueLabel.setText(String.valueOf(minSlider.getValue()));
                 maxValueLabel.setText(String.valueOf(maxSlider.getValue()));
-                applyLUT();
+                scheduleLUT(maxSlider.getValueIsAdjusting());
                 updating = false;
             });
         }
 
+        private void scheduleLUT(boolean adjusting) {
+            if (adjusting) {
+                // Mid-drag: intermediate states are dropped, the timer picks
+                // up whatever the sliders hold when it fires
+                if (!redrawTimer.isRunning()) redrawTimer.start();
+            } else {
+                // Drag released (or keyboard step): exact redraw right away
+                redrawTimer.stop();
+                applyLUT();
+            }
+        }
+
         private void applyLUT() {
             if (imp.isComposite()) {
                 CompositeImage ci = (CompositeImage) imp;
@@ -263,8 +390,46 @@ public class LUTAdjusterDialog extends JFrame {
             imp.updateAndDraw();
         }
 
+        /** Updates colour and slider positions without redrawing the image. */
+        public void setState(Color color, double currentMin, double currentMax) {
+            updating = true;
+            redrawTimer.stop();
+            minSlider.setValue((int) currentMin);
+            maxSlider.setValue((int) currentMax);
+            minValueLabel.setText(String.valueOf((int) currentMin));
+            maxValueLabel.setText(String.valueOf((int) currentMax));
+            updating = false;
+            panel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createLineBorder(color, 2),
+                "Channel " + channel,
+                TitledBorder.LEFT, TitledBorder.TOP));
+        }
+
+        public void setHistogram(BufferedImage histogram) {
+            histogramBackdrop.setHistogram(histogram);
+        }
+
         public JPanel getPanel() {
             return panel;
         }
     }
+
+    // --- Panel that paints a pre-rendered histogram behind its children ---
+    private static class HistogramBackdrop extends JPanel {
+
+        private BufferedImage histogram;
+
+        void setHistogram(BufferedImage histogram) {
+            this.histogram = histogram;
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            if (histogram != null) {
+                g.drawImage(histogram, 0, 0, getWidth(), getHeight(), null);
+            }
+        }
+    }
 }
\ No newline at end of file
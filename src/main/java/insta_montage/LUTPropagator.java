@@ -0,0 +1,84 @@
+package insta_montage;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.process.LUT;
+
+import javax.swing.SwingUtilities;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Pushes per-channel display ranges to a whole set of images at once.
+ *
+ * Ranges are written to every image in parallel without drawing; the
+ * windows are then redrawn together in a single EDT pass instead of one
+ * updateAndDraw() round trip per image.
+ */
+public class LUTPropagator {
+
+    private LUTPropagator() {
+    }
+
+    /** Reads {min, max} per channel from the image's LUTs without changing the display. */
+    public static double[][] readRanges(ImagePlus imp) {
+        int channels = imp.getNChannels();
+        double[][] ranges = new double[channels][];
+        for (int c = 1; c <= channels; c++) {
+            if (imp.isComposite()) {
+                LUT lut = ((CompositeImage) imp).getChannelLut(c);
+                ranges[c - 1] = new double[]{lut.min, lut.max};
+            } else {
+                ranges[c - 1] = new double[]{imp.getDisplayRangeMin(), imp.getDisplayRangeMax()};
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Applies {@code ranges} to every target with the given bit depth and
+     * redraws them once at the end. Returns how many images were updated.
+     */
+    public static int apply(List<ImagePlus> targets, double[][] ranges, int bitDepth) {
+        List<ImagePlus> matching = targets.stream()
+            .filter(imp -> imp.getBitDepth() == bitDepth && imp.getBitDepth() != 24)
+            .collect(Collectors.toList());
+
+        matching.parallelStream().forEach(imp -> setRanges(imp, ranges));
+
+        SwingUtilities.invokeLater(() -> {
+            for (ImagePlus imp : matching) {
+                if (imp.getWindow() != null) imp.updateAndDraw();
+            }
+        });
+        return matching.size();
+    }
+
+    /**
+     * Computes one shared percentile range per channel over all targets
+     * together and applies it. Returns how many images were updated, or -1
+     * if the images cannot share a histogram (RGB or mixed bit depths).
+     */
+    public static int autoScale(List<ImagePlus> targets) {
+        if (targets.isEmpty()) return 0;
+        double[][] ranges = new AutoScaler().setSubsample(true).computeRanges(targets);
+        if (ranges == null) return -1;
+        return apply(targets, ranges, targets.get(0).getBitDepth());
+    }
+
+    // Writes the ranges into the image's LUTs without drawing
+    private static void setRanges(ImagePlus imp, double[][] ranges) {
+        int channels = Math.min(imp.getNChannels(), ranges.length);
+        if (imp.isComposite()) {
+            CompositeImage ci = (CompositeImage) imp;
+            for (int c = 1; c <= channels; c++) {
+                LUT lut = ci.getChannelLut(c);
+                lut.min = ranges[c - 1][0];
+                lut.max = ranges[c - 1][1];
+                ci.setChannelLut(lut, c);
+            }
+        } else if (channels > 0) {
+            imp.getProcessor().setMinAndMax(ranges[0][0], ranges[0][1]);
+        }
+    }
+}
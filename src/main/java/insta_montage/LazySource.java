@@ -0,0 +1,176 @@
+package insta_montage;
+
+import ij.CompositeImage;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+import ij.process.LUT;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A montage input that stays on disk until it is tiled.
+ *
+ * The file is opened as a virtual stack, so only its header is parsed up
+ * front. {@link #load()} then decodes just the channels of the one Z/T plane
+ * the montage shows and wraps them in a small in-memory image that carries
+ * the file's LUTs, display ranges and calibration. In projection mode the
+ * Z range is streamed plane by plane through {@link ZProjection} instead.
+ */
+public class LazySource {
+
+    private final String path;
+    private final int z;
+    private final int t;
+    private final int[] channels;
+    private int[] size; // width, height from the TIFF header, once read
+
+    /** The file's first plane, all channels. */
+    public LazySource(String path) {
+        this(path, 1, 1, null);
+    }
+
+    /**
+     * @param z        1-based slice to show
+     * @param t        1-based frame to show
+     * @param channels 1-based channels to keep, or null for all
+     */
+    public LazySource(String path, int z, int t, int[] channels) {
+        this.path = path;
+        this.z = Math.max(1, z);
+        this.t = Math.max(1, t);
+        this.channels = channels == null ? null : channels.clone();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /** Identifies the plane this source yields without decoding any pixels. */
+    public String cacheKey() {
+        File file = new File(path);
+        return "lazy:" + file.getAbsolutePath() + '@' + file.lastModified()
+            + " z:" + z + " t:" + t
+            + " c:" + (channels == null ? "all" : Arrays.toString(channels));
+    }
+
+    /**
+     * Width and height of the planes {@link #load()} yields, read from the
+     * TIFF header alone, or null if the file is not a TIFF or the header
+     * cannot be read.
+     */
+    public synchronized int[] dimensions() {
+        if (size == null) {
+            String name = new File(path).getName().toLowerCase(Locale.ROOT);
+            if (!name.endsWith(".tif") && !name.endsWith(".tiff")) return null;
+            File file = new File(path).getAbsoluteFile();
+            try {
+                FileInfo[] info = new TiffDecoder(file.getParent() + File.separator, file.getName()).getTiffInfo();
+                if (info == null || info.length == 0 || info[0].width <= 0 || info[0].height <= 0) return null;
+                size = new int[]{info[0].width, info[0].height};
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return size.clone();
+    }
+
+    /** Decodes the selected plane. */
+    public ImagePlus load() throws IOException {
+        return load(ZProjection.PLANE, z, z);
+    }
+
+    /**
+     * Decodes the selected plane, or projects the selected channels over
+     * slices zStart..zEnd (0 = last) when {@code method} is a projection,
+     * reading one plane at a time.
+     */
+    public ImagePlus load(String method, int zStart, int zEnd) throws IOException {
+        ImagePlus virtual = IJ.openVirtual(path);
+        if (virtual == null) throw new IOException("could not open " + path);
+
+        int nChannels = virtual.getNChannels();
+        int slice = Math.min(z, virtual.getNSlices());
+        int frame = Math.min(t, virtual.getNFrames());
+        int[] keep = channels;
+        if (keep == null) {
+            keep = new int[nChannels];
+            for (int c = 0; c < nChannels; c++) keep[c] = c + 1;
+        }
+        for (int c : keep) {
+            if (c < 1 || c > nChannels) throw new IOException(path + " has no channel " + c);
+        }
+
+        ImagePlus imp;
+        if (ZProjection.isProjection(method) && virtual.getNSlices() > 1 && virtual.getBitDepth() != 24) {
+            imp = ZProjection.project(virtual, keep, frame, method, zStart, zEnd);
+        } else {
+            // Only these planes are read from disk
+            ImageStack src = virtual.getStack();
+            ImageStack stack = new ImageStack(virtual.getWidth(), virtual.getHeight());
+            for (int c : keep) {
+                int index = virtual.getStackIndex(c, slice, frame);
+                stack.addSlice(src.getSliceLabel(index), src.getProcessor(index));
+            }
+            imp = wrap(virtual, stack, keep, 1);
+        }
+        virtual.close();
+        return imp;
+    }
+
+    /**
+     * A one-slice image of {@code stack} (one plane per kept channel) that
+     * displays like the same channels of {@code like}: title, calibration,
+     * composite mode, LUTs, and display ranges multiplied by {@code rangeScale}.
+     */
+    static ImagePlus wrap(ImagePlus like, ImageStack stack, int[] keep, double rangeScale) {
+        ImagePlus imp = new ImagePlus(like.getTitle(), stack);
+        imp.setCalibration(like.getCalibration().copy());
+        imp.setDimensions(keep.length, 1, 1);
+
+        if (keep.length > 1) {
+            int mode = like.isComposite() ? ((CompositeImage) like).getMode() : IJ.COMPOSITE;
+            CompositeImage ci = new CompositeImage(imp, mode);
+            for (int k = 0; k < keep.length; k++) {
+                LUT lut = channelLut(like, keep[k]);
+                ci.setC(k + 1);
+                if (lut != null) ci.setChannelLut(lut);
+                ci.setDisplayRange(displayMin(like, keep[k]) * rangeScale, displayMax(like, keep[k]) * rangeScale);
+            }
+            ci.setC(1);
+            return ci;
+        }
+        if (like.getBitDepth() != 24) {
+            LUT lut = channelLut(like, keep[0]);
+            if (lut != null) imp.getProcessor().setLut(lut);
+            imp.setDisplayRange(displayMin(like, keep[0]) * rangeScale, displayMax(like, keep[0]) * rangeScale);
+        }
+        return imp;
+    }
+
+    static LUT channelLut(ImagePlus virtual, int c) {
+        if (virtual.getBitDepth() == 24) return null;
+        if (virtual.isComposite()) return (LUT) ((CompositeImage) virtual).getChannelLut(c).clone();
+        return virtual.getProcessor().getLut();
+    }
+
+    static double displayMin(ImagePlus virtual, int c) {
+        return virtual.isComposite() ? ((CompositeImage) virtual).getChannelLut(c).min
+            : virtual.getDisplayRangeMin();
+    }
+
+    static double displayMax(ImagePlus virtual, int c) {
+        return virtual.isComposite() ? ((CompositeImage) virtual).getChannelLut(c).max
+            : virtual.getDisplayRangeMax();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
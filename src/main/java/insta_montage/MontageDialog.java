@@ -3,10 +3,16 @@ package insta_montage;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
+import ij.io.OpenDialog;
+import ij.io.SaveDialog;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,6 +36,18 @@ public class MontageDialog extends JFrame {
     private JRadioButton expandCanvasRadio;
     private JRadioButton scaleDownRadio;
 
+    // Tile source
+    private JComboBox<String> tileSourceCombo;
+    private JSpinner zStartSpinner;
+    private JSpinner zEndSpinner;
+    private JCheckBox splitChannelsCheck;
+    private JCheckBox grayscaleChannelsCheck;
+
+    // ROI insets
+    private JCheckBox roiInsetsCheck;
+    private JCheckBox insetOutlineCheck;
+    private JComboBox<String> insetOutlineColorCombo;
+
     // Labels
     private JCheckBox showLabelsCheck;
     private JComboBox<String> labelPositionCombo;
@@ -41,6 +59,13 @@ public class MontageDialog extends JFrame {
     private JSpinner scaleBarLengthSpinner;
     private JComboBox<String> scaleBarColorCombo;
 
+    // Most recently opened dialog, source of the montage set order
+    private static MontageDialog active;
+
+    // Prepared tiles kept for the session; trimmed to this while the dialog is hidden
+    private static final long IDLE_TILE_BYTES = 32L * 1024 * 1024;
+    private final TileMemoryCache tileMemory = TileMemoryCache.withDefaultCap();
+
     private static final String[] POSITIONS = {
         "Top Left", "Top Right", "Bottom Left", "Bottom Right"
     };
@@ -49,7 +74,7 @@ public class MontageDialog extends JFrame {
         "White", "Black", "Gray"
     };
 
-    public MontageDialog(String pluginName, String version, ImagePlus[] images) {
+    private MontageDialog(String pluginName, String version) {
         super(pluginName + " v" + version);
         this.pluginName = pluginName;
         this.version = version;
@@ -57,11 +82,57 @@ public class MontageDialog extends JFrame {
         refreshImageList();
     }
 
+    /**
+     * Shows the session's dialog, building it on first use. Closing only
+     * hides it, so reopening is immediate: controls keep their values, and
+     * the image list is reconciled with the open images, redrawing only the
+     * thumbnails of images that changed.
+     */
+    public static synchronized MontageDialog open(String pluginName, String version) {
+        if (active == null) {
+            active = new MontageDialog(pluginName, version);
+        } else if (!active.isVisible()) {
+            active.refreshImageList();
+        }
+        active.display();
+        active.toFront();
+        return active;
+    }
+
+    /**
+     * Images in montage order: the thumbnail order of the open dialog, or
+     * all open images if no dialog is showing.
+     */
+    public static List<ImagePlus> getMontageSet() {
+        MontageDialog dialog = active;
+        if (dialog != null && dialog.isVisible()) {
+            return dialog.thumbnailPanel.getOrderedImages();
+        }
+        List<ImagePlus> images = new ArrayList<>();
+        int[] imageIDs = WindowManager.getIDList();
+        if (imageIDs != null) {
+            for (int id : imageIDs) {
+                ImagePlus imp = WindowManager.getImage(id);
+                if (imp != null) images.add(imp);
+            }
+        }
+        return images;
+    }
+
     private void buildUI() {
         setLayout(new BorderLayout(10, 10));
-        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
         setResizable(true);
 
+        // While hidden, hold no images and only a small share of the tile cache
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentHidden(ComponentEvent e) {
+                thumbnailPanel.releaseImages();
+                tileMemory.trimTo(IDLE_TILE_BYTES);
+            }
+        });
+
         JPanel mainPanel = new JPanel();
         mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.Y_AXIS));
         mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
@@ -113,6 +184,51 @@ public class MontageDialog extends JFrame {
         mainPanel.add(canvasPanel);
         mainPanel.add(Box.createVerticalStrut(5));
 
+        // --- Tile Source ---
+        JPanel sourcePanel = createTitledPanel("Tile Source");
+        sourcePanel.setLayout(new GridLayout(5, 2, 5, 5));
+        sourcePanel.add(new JLabel("Projection over Z:"));
+        tileSourceCombo = new JComboBox<>(ZProjection.METHODS);
+        sourcePanel.add(tileSourceCombo);
+        sourcePanel.add(new JLabel("From slice:"));
+        zStartSpinner = new JSpinner(new SpinnerNumberModel(1, 1, 10000, 1));
+        sourcePanel.add(zStartSpinner);
+        sourcePanel.add(new JLabel("To slice (0 = last):"));
+        zEndSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 10000, 1));
+        sourcePanel.add(zEndSpinner);
+        tileSourceCombo.addActionListener(e -> {
+            boolean projecting = ZProjection.isProjection((String) tileSourceCombo.getSelectedItem());
+            zStartSpinner.setEnabled(projecting);
+            zEndSpinner.setEnabled(projecting);
+        });
+        zStartSpinner.setEnabled(false);
+        zEndSpinner.setEnabled(false);
+        sourcePanel.add(new JLabel("Split channels + merge:"));
+        splitChannelsCheck = new JCheckBox("(first image)", false);
+        sourcePanel.add(splitChannelsCheck);
+        sourcePanel.add(new JLabel("Channels in gray:"));
+        grayscaleChannelsCheck = new JCheckBox("", false);
+        sourcePanel.add(grayscaleChannelsCheck);
+        splitChannelsCheck.addActionListener(e -> grayscaleChannelsCheck.setEnabled(splitChannelsCheck.isSelected()));
+        grayscaleChannelsCheck.setEnabled(false);
+        mainPanel.add(sourcePanel);
+        mainPanel.add(Box.createVerticalStrut(5));
+
+        // --- ROI Insets ---
+        JPanel insetPanel = createTitledPanel("ROI Insets");
+        insetPanel.setLayout(new GridLayout(3, 2, 5, 5));
+        insetPanel.add(new JLabel("Magnified ROI tiles:"));
+        roiInsetsCheck = new JCheckBox("", false);
+        insetPanel.add(roiInsetsCheck);
+        insetPanel.add(new JLabel("Outline on image:"));
+        insetOutlineCheck = new JCheckBox("", true);
+        insetPanel.add(insetOutlineCheck);
+        insetPanel.add(new JLabel("Outline color:"));
+        insetOutlineColorCombo = new JComboBox<>(COLORS);
+        insetPanel.add(insetOutlineColorCombo);
+        mainPanel.add(insetPanel);
+        mainPanel.add(Box.createVerticalStrut(5));
+
         // --- Label Settings ---
         JPanel labelPanel = createTitledPanel("Label Settings");
         labelPanel.setLayout(new GridLayout(2, 2, 5, 5));
@@ -155,7 +271,13 @@ public class MontageDialog extends JFrame {
         makeMontageButton.setBackground(new Color(70, 130, 180));
         makeMontageButton.setForeground(Color.WHITE);
         makeMontageButton.setFont(makeMontageButton.getFont().deriveFont(Font.BOLD));
+        JButton exportPyramidButton = new JButton("Export Pyramid...");
+        JButton saveRecipeButton = new JButton("Save Recipe...");
+        JButton loadRecipeButton = new JButton("Load Recipe...");
         buttonPanel.add(refreshButton);
+        buttonPanel.add(loadRecipeButton);
+        buttonPanel.add(saveRecipeButton);
+        buttonPanel.add(exportPyramidButton);
         buttonPanel.add(makeMontageButton);
         mainPanel.add(buttonPanel);
 
@@ -163,21 +285,81 @@ public class MontageDialog extends JFrame {
         refreshButton.addActionListener(e -> refreshImageList());
 
         makeMontageButton.addActionListener(e -> {
-            List<ImagePlus> orderedImages = thumbnailPanel.getOrderedImages();
-            if (orderedImages.size() < 2) {
-                IJ.error(pluginName, "Please open at least 2 images before making a montage.");
-                return;
-            }
-            MontageSettings settings = getSettings(orderedImages);
-            MontageProcessor processor = new MontageProcessor(
-                orderedImages.toArray(new ImagePlus[0]), settings);
+            MontageProcessor processor = createProcessor();
+            if (processor == null) return;
+            processor.setRenderCache(RenderCache.getDefault());
             processor.run();
         });
 
+        exportPyramidButton.addActionListener(e -> {
+            MontageProcessor processor = createProcessor();
+            if (processor == null) return;
+            SaveDialog sd = new SaveDialog("Export Pyramidal TIFF", "montage_pyramid", ".tif");
+            if (sd.getFileName() == null) return;
+            File file = new File(sd.getDirectory(), sd.getFileName());
+
+            // Large montages take a while; keep the dialog responsive
+            new Thread(() -> {
+                IJ.showStatus("Insta Montage: writing " + file.getName() + "...");
+                try {
+                    processor.exportPyramid(file);
+                    IJ.showStatus("Insta Montage: " + file.getName() + " written ("
+                        + processor.getCanvasWidth() + "x" + processor.getCanvasHeight() + ")");
+                } catch (IOException ex) {
+                    IJ.error(pluginName, "Could not write " + file + ": " + ex.getMessage());
+                }
+            }, "Insta Montage pyramid export").start();
+        });
+
+        saveRecipeButton.addActionListener(e -> {
+            SaveDialog sd = new SaveDialog("Save Montage Recipe", "montage", MontageRecipe.EXTENSION);
+            if (sd.getFileName() == null) return;
+            File file = new File(sd.getDirectory(), sd.getFileName());
+            try {
+                MontageRecipe.save(getSettings(thumbnailPanel.getOrderedImages()), file);
+            } catch (IOException ex) {
+                IJ.error(pluginName, "Could not write " + file + ": " + ex.getMessage());
+            }
+        });
+
+        loadRecipeButton.addActionListener(e -> {
+            OpenDialog od = new OpenDialog("Load Montage Recipe");
+            if (od.getFileName() == null) return;
+            File file = new File(od.getDirectory(), od.getFileName());
+            try {
+                applySettings(MontageRecipe.load(file));
+            } catch (IOException ex) {
+                IJ.error(pluginName, "Could not read " + file + ": " + ex.getMessage());
+            }
+        });
+
         add(mainPanel, BorderLayout.CENTER);
         pack();
         setLocationRelativeTo(null);
     }
+    // Processor for the current images and settings, or null after telling the user why not
+    private MontageProcessor createProcessor() {
+        List<ImagePlus> orderedImages = thumbnailPanel.getOrderedImages();
+        MontageSettings settings = getSettings(orderedImages);
+        if (splitChannelsCheck.isSelected()) {
+            if (orderedImages.isEmpty() || !SplitChannels.canSplit(orderedImages.get(0))) {
+                IJ.error(pluginName, "Split channels needs a multichannel (non-RGB) image first in the list.");
+                return null;
+            }
+            return MontageProcessor.splitChannels(orderedImages.get(0), settings);
+        }
+        // One image is enough when its ROI inset makes the second tile
+        boolean inset = settings.roiInsets && orderedImages.size() == 1
+            && orderedImages.get(0).getRoi() != null && orderedImages.get(0).getRoi().isArea();
+        if (orderedImages.size() < 2 && !inset) {
+            IJ.error(pluginName, "Please open at least 2 images before making a montage.");
+            return null;
+        }
+        MontageProcessor processor = new MontageProcessor(orderedImages.toArray(new ImagePlus[0]), settings);
+        processor.setTileMemory(tileMemory);
+        return processor;
+    }
+
     private void updateScaleBarCombo() {
         List<ImagePlus> ordered = thumbnailPanel.getOrderedImages();
         String currentSelection = (String) scaleBarImageCombo.getSelectedItem();
@@ -211,10 +393,11 @@ public class MontageDialog extends JFrame {
             }
         }
 
-        // Update thumbnail panel
-        thumbnailPanel.setImages(images);
+        // Update thumbnail panel, keeping the current order and unchanged thumbnails
+        thumbnailPanel.reconcile(images);
         thumbnailPanel.revalidate();
         thumbnailPanel.repaint();
+        images = thumbnailPanel.getOrderedImages();
 
         // Update scale bar image combo
         scaleBarImageCombo.removeAllItems();
@@ -231,6 +414,15 @@ public class MontageDialog extends JFrame {
         pack();
     }
 
+    /** Settings of the open dialog, or defaults if no dialog is showing. */
+    public static MontageSettings getCurrentSettings() {
+        MontageDialog dialog = active;
+        if (dialog != null && dialog.isVisible()) {
+            return dialog.getSettings(dialog.thumbnailPanel.getOrderedImages());
+        }
+        return new MontageSettings();
+    }
+
     private MontageSettings getSettings(List<ImagePlus> orderedImages) {
         MontageSettings settings = new MontageSettings();
         settings.rows = (int) rowsSpinner.getValue();
@@ -245,9 +437,50 @@ public class MontageDialog extends JFrame {
         settings.scaleBarImageIndex = Math.max(0, scaleBarImageCombo.getSelectedIndex());
         settings.scaleBarLength = (double) scaleBarLengthSpinner.getValue();
         settings.scaleBarColor = parseColor((String) scaleBarColorCombo.getSelectedItem());
+        settings.tileSource = (String) tileSourceCombo.getSelectedItem();
+        settings.zStart = (int) zStartSpinner.getValue();
+        settings.zEnd = (int) zEndSpinner.getValue();
+        settings.grayscaleChannels = grayscaleChannelsCheck.isSelected();
+        settings.roiInsets = roiInsetsCheck.isSelected();
+        settings.insetOutline = insetOutlineCheck.isSelected();
+        settings.insetOutlineColor = parseColor((String) insetOutlineColorCombo.getSelectedItem());
         return settings;
     }
 
+    // Shows loaded settings in the controls, clamped to what they allow
+    private void applySettings(MontageSettings settings) {
+        setSpinner(rowsSpinner, settings.rows);
+        setSpinner(colsSpinner, settings.cols);
+        setSpinner(borderThicknessSpinner, settings.borderThickness);
+        borderColorCombo.setSelectedItem(colorName(settings.borderColor));
+        expandCanvasRadio.setSelected(settings.expandCanvas);
+        scaleDownRadio.setSelected(!settings.expandCanvas);
+        showLabelsCheck.setSelected(settings.showLabels);
+        labelPositionCombo.setSelectedItem(settings.labelPosition);
+        showScaleBarCheck.setSelected(settings.showScaleBar);
+        scaleBarPositionCombo.setSelectedItem(settings.scaleBarPosition);
+        if (settings.scaleBarImageIndex < scaleBarImageCombo.getItemCount()) {
+            scaleBarImageCombo.setSelectedIndex(settings.scaleBarImageIndex);
+        }
+        setSpinner(scaleBarLengthSpinner, settings.scaleBarLength);
+        scaleBarColorCombo.setSelectedItem(colorName(settings.scaleBarColor));
+        tileSourceCombo.setSelectedItem(settings.tileSource);
+        setSpinner(zStartSpinner, settings.zStart);
+        setSpinner(zEndSpinner, settings.zEnd);
+        grayscaleChannelsCheck.setSelected(settings.grayscaleChannels);
+        roiInsetsCheck.setSelected(settings.roiInsets);
+        insetOutlineCheck.setSelected(settings.insetOutline);
+        insetOutlineColorCombo.setSelectedItem(colorName(settings.insetOutlineColor));
+    }
+
+    private static void setSpinner(JSpinner spinner, double value) {
+        SpinnerNumberModel model = (SpinnerNumberModel) spinner.getModel();
+        double min = ((Number) model.getMinimum()).doubleValue();
+        double max = ((Number) model.getMaximum()).doubleValue();
+        value = Math.max(min, Math.min(max, value));
+        spinner.setValue(model.getNumber() instanceof Integer ? (Object) (int) Math.round(value) : (Object) value);
+    }
+
     private JPanel createTitledPanel(String title) {
         JPanel panel = new JPanel();
         panel.setBorder(BorderFactory.createTitledBorder(
@@ -265,6 +498,13 @@ public class MontageDialog extends JFrame {
         }
     }
 
+    // Inverse of parseColor; other colours show as the default
+    private static String colorName(Color color) {
+        if (Color.BLACK.equals(color)) return "Black";
+        if (Color.GRAY.equals(color)) return "Gray";
+        return "White";
+    }
+
     public void display() {
         setVisible(true);
     }
@@ -1,14 +1,11 @@
 package insta_montage;
 
 import ij.ImagePlus;
-import ij.WindowManager;
 import ij.plugin.tool.PlugInTool;
 import java.awt.event.MouseEvent;
 
 public class MontageDialogTool extends PlugInTool {
 
-    private MontageDialog dialog;
-
     @Override
     public String getToolName() {
         return "Insta Montage";
@@ -31,19 +28,6 @@ public class MontageDialogTool extends PlugInTool {
     }
 
     private void showDialog() {
-        if (dialog == null || !dialog.isVisible()) {
-            int[] imageIDs = WindowManager.getIDList();
-            ImagePlus[] images = new ImagePlus[0];
-            if (imageIDs != null) {
-                images = new ImagePlus[imageIDs.length];
-                for (int i = 0; i < imageIDs.length; i++) {
-                    images[i] = WindowManager.getImage(imageIDs[i]);
-                }
-            }
-            dialog = new MontageDialog("Insta Montage", "0.0.1", images);
-            dialog.display();
-        } else {
-            dialog.toFront();
-        }
+        MontageDialog.open(Main.PLUGIN_NAME, Main.VERSION);
     }
 }
\ No newline at end of file
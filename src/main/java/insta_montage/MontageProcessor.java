@@ -1,12 +1,14 @@
 package insta_montage;
 
+import ij.IJ;
 import ij.ImagePlus;
+import ij.gui.Roi;
 import ij.process.ImageProcessor;
 import ij.process.ColorProcessor;
 
 import java.awt.Color;
-import java.awt.Font;
 import java.awt.FontMetrics;
+import java.awt.Rectangle;
 
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
@@ -14,200 +16,621 @@ import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class MontageProcessor {
 
     private final ImagePlus[] images;
+    private final LazySource[] sources;
     private final MontageSettings s;
 
-    private int rows;
-    private int cols;
-    private int tileW;
-    private int tileH;
-    private int canvasW;
-    private int canvasH;
-
+    // Split-channel mode: every images[i] is the one multichannel source
+    private final boolean split;
+    private ColorProcessor[] splitTiles;
+    private String[] splitLabels;
+
+    // ROI insets: per tile, the ROI bounds an inset tile magnifies (null for
+    // ordinary tiles); an inset directly follows its parent image's tile
+    private final Rectangle[] insetRois;
+
+    private RenderPlan plan;
+    private int dedupHits;
+    private RenderCache cache;
+    private TileMemoryCache memory;
+
+    // Lazy mode: the next source is decoded while the current tile is composited
+    private ExecutorService loader;
+    private Future<ImagePlus> pending;
+    private int pendingIndex = -1;
+
+    // In-memory projection mode: the next tiles are projected concurrently
+    // on the common pool while the current one is composited
+    private final Map<ImagePlus, Future<ImagePlus>> projections = new IdentityHashMap<>();
+
+    /**
+     * Montage of in-memory images. With settings.roiInsets, every image with
+     * an area ROI is followed by an inset tile that magnifies the ROI.
+     */
     public MontageProcessor(ImagePlus[] images, MontageSettings settings) {
+        this(settings.roiInsets ? withInsets(images) : images,
+            settings.roiInsets ? insetRois(images) : null, settings, false);
+    }
+
+    private MontageProcessor(ImagePlus[] images, Rectangle[] insetRois, MontageSettings settings, boolean split) {
         this.images = images;
+        this.sources = null;
         this.s = settings;
+        this.split = split;
+        this.insetRois = insetRois;
+    }
+
+    /**
+     * Montage of one multichannel image: a tile per channel (in its LUT
+     * colour, or gray with settings.grayscaleChannels) followed by the merge.
+     * Each channel plane is read once for all tiles; see {@link SplitChannels}.
+     */
+    public static MontageProcessor splitChannels(ImagePlus imp, MontageSettings settings) {
+        if (!SplitChannels.canSplit(imp)) {
+            throw new IllegalArgumentException(imp.getTitle() + " has no channels to split");
+        }
+        ImagePlus[] tiles = new ImagePlus[imp.getNChannels() + 1];
+        Arrays.fill(tiles, imp);
+        return new MontageProcessor(tiles, null, settings, true);
+    }
+
+    // Tile inputs with each image that has an ROI listed twice (parent, inset)
+    private static ImagePlus[] withInsets(ImagePlus[] images) {
+        List<ImagePlus> tiles = new ArrayList<>();
+        for (ImagePlus imp : images) {
+            tiles.add(imp);
+            if (roiBounds(imp) != null) tiles.add(imp);
+        }
+        return tiles.toArray(new ImagePlus[0]);
+    }
+
+    private static Rectangle[] insetRois(ImagePlus[] images) {
+        List<Rectangle> rois = new ArrayList<>();
+        for (ImagePlus imp : images) {
+            Rectangle bounds = roiBounds(imp);
+            rois.add(null);
+            if (bounds != null) rois.add(bounds);
+        }
+        return rois.toArray(new Rectangle[0]);
+    }
+
+    // Bounds of the image's area ROI within the image, or null if it has none
+    private static Rectangle roiBounds(ImagePlus imp) {
+        Roi roi = imp.getRoi();
+        if (roi == null || !roi.isArea()) return null;
+        Rectangle bounds = roi.getBounds().intersection(new Rectangle(0, 0, imp.getWidth(), imp.getHeight()));
+        return bounds.isEmpty() ? null : bounds;
+    }
+
+    /**
+     * Montage of on-disk sources. Each one is decoded only when its tile is
+     * reached, one tile ahead of compositing, and released once placed.
+     */
+    public MontageProcessor(LazySource[] sources, MontageSettings settings) {
+        this.images = new ImagePlus[sources.length];
+        this.sources = sources;
+        this.s = settings;
+        this.split = false;
+        this.insetRois = null;
     }
 
     public void run() {
-        // Auto-expand grid if needed
-        rows = s.rows;
-        cols = s.cols;
-        while (rows * cols < images.length) {
-            cols++;
+        ColorProcessor canvas = render();
+
+        // Show result as a new image window
+        ImagePlus result = new ImagePlus("Insta Montage", canvas);
+        result.show();
+        copyToClipboard(canvas);
+        if (dedupHits > 0) {
+            IJ.showStatus("Insta Montage: " + dedupHits + " of " + images.length
+                + " tiles reused (" + Math.round(100 * getDedupHitRate()) + "% dedup)");
         }
+    }
 
-        // Determine tile size from the first image
-        tileW = images[0].getWidth();
-        tileH = images[0].getHeight();
+    /**
+     * Builds the montage canvas without showing it or touching the clipboard,
+     * so it can be driven headless (batch runs, regression checks).
+     */
+    public ColorProcessor render() {
+        startLoader();
+        try {
+            return renderTiles();
+        } finally {
+            stopLoader();
+            stopProjections();
+            splitTiles = null;
+        }
+    }
 
-        // Scale images down if that mode is selected
-        if (!s.expandCanvas) {
-            tileW = tileW - s.borderThickness;
-            tileH = tileH - s.borderThickness;
-            if (tileW < 1) tileW = 1;
-            if (tileH < 1) tileH = 1;
+    /**
+     * Writes the montage as a tiled, pyramidal TIFF. Tiles are composited one
+     * grid row at a time into a band that is streamed to the writer, which
+     * builds the lower levels as it goes, so the full canvas never exists.
+     */
+    public void exportPyramid(File file) throws IOException {
+        startLoader();
+        try {
+            writePyramid(file);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            stopLoader();
+            stopProjections();
+            splitTiles = null;
         }
+    }
 
-        // Total canvas size — border only between tiles, not on outer edges
-        canvasW = cols * tileW + (cols - 1) * s.borderThickness;
-        canvasH = rows * tileH + (rows - 1) * s.borderThickness;
+    private ColorProcessor renderTiles() {
+        layout();
+
+        // A repeat of an earlier render is read back from the disk cache.
+        // In-memory stacks are keyed by their displayed plane only, so
+        // projections of them skip the montage-level entry.
+        String montageKey = null;
+        boolean cacheable = sources != null || !ZProjection.isProjection(s.tileSource);
+        if (cache != null && cacheable) {
+            montageKey = sources != null
+                ? RenderCache.montageKey(sources, s)
+                : RenderCache.montageKey(images, s);
+            if (split) montageKey += "split\n";
+            if (insetRois != null) montageKey += "insets:" + Arrays.toString(insetRois) + "\n";
+            ColorProcessor cached = cache.get(montageKey);
+            if (cached != null && cached.getWidth() == plan.canvasW && cached.getHeight() == plan.canvasH) {
+                dedupHits = 0;
+                return cached;
+            }
+        }
 
         // Create blank canvas (RGB color image)
-        ColorProcessor canvas = new ColorProcessor(canvasW, canvasH);
-        canvas.setColor(s.borderColor);
-        canvas.fill();
+        ColorProcessor canvas = new ColorProcessor(plan.canvasW, plan.canvasH);
+        int[] canvasPixels = (int[]) canvas.getPixels();
+        PixelKernels.fillRect(canvasPixels, plan.canvasW, 0, 0, plan.canvasW, plan.canvasH, plan.background);
 
         // Place each image tile onto the canvas
+        Map<Long, PreparedTile> preparedTiles = new HashMap<>();
+        dedupHits = 0;
         for (int i = 0; i < images.length; i++) {
-            int row = i / cols;
-            int col = i % cols;
+            placeTile(canvas, i, plan.tileX(i), plan.tileY(i), preparedTiles);
+        }
 
-            // No outer border — tiles start at 0,0
-            int x = col * (tileW + s.borderThickness);
-            int y = row * (tileH + s.borderThickness);
+        if (montageKey != null) cache.put(montageKey, canvas);
+        return canvas;
+    }
 
-            // Convert and resize the tile image
-            ImagePlus source = images[i];
-            if (source.isComposite() || source.getNChannels() > 1) {
-                source = source.flatten();
+    private void writePyramid(File file) throws IOException {
+        layout();
+        int canvasW = plan.canvasW;
+        int tileH = plan.tileH;
+        int border = plan.border;
+        int background = plan.background;
+
+        // One grid row of tiles, and the border strip between grid rows
+        ColorProcessor band = new ColorProcessor(canvasW, tileH);
+        int[] bandPixels = (int[]) band.getPixels();
+        int[] gap = new int[canvasW * Math.max(border, 0)];
+        PixelKernels.fillRect(gap, canvasW, 0, 0, canvasW, border, background);
+
+        Map<Long, PreparedTile> preparedTiles = new HashMap<>();
+        dedupHits = 0;
+        PyramidTiffWriter writer = new PyramidTiffWriter(file, canvasW, plan.canvasH);
+        try {
+            for (int row = 0; row < plan.rows; row++) {
+                // Dedup within a grid row only, so prepared tiles never add up to a canvas
+                preparedTiles.clear();
+                if (row > 0 && border > 0) writer.writeRows(gap, 0, border);
+                PixelKernels.fillRect(bandPixels, canvasW, 0, 0, canvasW, tileH, background);
+                for (int col = 0; col < plan.cols; col++) {
+                    int i = row * plan.cols + col;
+                    if (i >= images.length) break;
+                    placeTile(band, i, plan.tileX(i), 0, preparedTiles);
+                }
+                writer.writeRows(bandPixels, 0, tileH);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            // No truncated pyramid is left at the user's path
+            writer.abort();
+            throw e;
+        }
+        writer.close();
+    }
+
+    // Reuses the current plan if it still fits, otherwise compiles a new one.
+    // On-disk TIFFs are sized from their header, so a montage cache hit
+    // decodes nothing.
+    private void layout() {
+        int[] size = sources != null ? sources[0].dimensions() : null;
+        if (size == null) {
+            ImagePlus first = acquire(0);
+            size = new int[]{first.getWidth(), first.getHeight()};
+        }
+        int w = size[0];
+        int h = size[1];
+        if (plan == null || !plan.fits(s, images.length, w, h)) {
+            plan = RenderPlan.compile(s, images.length, w, h);
+        }
+    }
+
+    /**
+     * Uses a plan compiled earlier (e.g. for the previous montage of a batch)
+     * whenever it fits this montage, so layout is not worked out again.
+     */
+    public void setPlan(RenderPlan plan) {
+        this.plan = plan;
+    }
+
+    /** The plan of the last render or export. */
+    public RenderPlan getPlan() {
+        return plan;
+    }
+
+    // Draws tile i with its label and scale bar at x,y of the target
+    private void placeTile(ColorProcessor target, int i, int x, int y,
+                           Map<Long, PreparedTile> preparedTiles) {
+        // Projection mode: the tile input is projected over Z here (lazy sources
+        // already are); a split source only once, for all of its tiles
+        ImagePlus source = acquire(i);
+        if (!split || splitTiles == null) source = projected(i, source);
+
+        ImageProcessor tile;
+        String label;
+        double pixelSize = source.getCalibration().pixelWidth;
+        if (split) {
+            // All channel tiles and the merge come from one pass over the source
+            if (splitTiles == null) {
+                splitTiles = SplitChannels.render(source, s.grayscaleChannels);
+                splitLabels = SplitChannels.labels(source);
             }
-            ImageProcessor tile = source.getProcessor().convertToRGB();
-            if (tile.getWidth() != tileW || tile.getHeight() != tileH) {
-                tile = tile.resize(tileW, tileH, true);
+            tile = fitToTile(splitTiles[i]);
+            splitTiles[i] = null;
+            label = splitLabels[i];
+        } else if (isInset(i)) {
+            Rectangle region = plan.insetRegion(insetRois[i], source.getWidth(), source.getHeight());
+            tile = insetTile(source, region);
+            label = titleLabel(source) + " inset";
+            pixelSize *= (double) region.width / plan.tileW;
+        } else {
+            // Identical inputs share one prepared tile; a hash hit is only
+            // taken once the pixels are confirmed equal
+            long hash = PixelHash.of(source);
+            PreparedTile prepared = preparedTiles.get(hash);
+            if (prepared != null && PixelHash.samePixels(prepared.source.get(), source)) {
+                tile = prepared.tile;
+                dedupHits++;
+            } else {
+                tile = prepareCachedTile(source, hash);
+                if (prepared == null) preparedTiles.put(hash, new PreparedTile(source, tile));
             }
+            label = titleLabel(source);
+        }
 
-            // Draw tile onto canvas
-            canvas.insert(tile, x, y);
+        // Draw tile onto canvas
+        PixelKernels.copyRect((int[]) tile.getPixels(), tile.getWidth(), tile.getHeight(),
+            (int[]) target.getPixels(), target.getWidth(), target.getHeight(), x, y);
+
+        // Outline what the next tile magnifies while this tile's pixels are at hand
+        if (plan.insetOutline && isInset(i + 1) && !isInset(i)) {
+            Rectangle region = plan.insetRegion(insetRois[i + 1], source.getWidth(), source.getHeight());
+            drawOutline(target, region, source.getWidth(), source.getHeight(), x, y);
+        }
+
+        // Draw label if enabled
+        if (plan.showLabels) {
+            drawLabel(target, label, x, y);
+        }
+
+        // Draw scale bar on the designated image only
+        if (plan.showScaleBar && i == scaleBarTile()) {
+            drawScaleBar(target, source, pixelSize, x, y);
+        }
+
+        // Lazily loaded planes are not needed once placed
+        if (sources != null) images[i] = null;
+    }
+
+    // Tile index of the image chosen for the scale bar, skipping inset tiles
+    private int scaleBarTile() {
+        if (insetRois == null) return plan.scaleBarImage;
+        int image = -1;
+        for (int i = 0; i < insetRois.length; i++) {
+            if (insetRois[i] == null && ++image == plan.scaleBarImage) return i;
+        }
+        return -1;
+    }
+
+    // Tile i's input projected over Z, starting the projections of the
+    // following tiles as far ahead as the tile memory budget allows
+    private ImagePlus projected(int i, ImagePlus source) {
+        if (!ZProjection.isProjection(s.tileSource) || sources != null || split) {
+            return ZProjection.project(source, s.tileSource, s.zStart, s.zEnd);
+        }
+        int ahead = projectionsAhead(source);
+        for (int j = i; j < Math.min(images.length, i + ahead); j++) {
+            projections.computeIfAbsent(images[j], imp -> ForkJoinPool.commonPool().submit(
+                () -> ZProjection.project(imp, s.tileSource, s.zStart, s.zEnd)));
+        }
+        ImagePlus result = await(projections.get(source));
+        // An inset tile reuses its parent's projection
+        if (!isInset(i + 1)) projections.remove(source);
+        return result;
+    }
+
+    // Projections in flight at once: each holds a double accumulator and its
+    // result per channel until placed
+    private int projectionsAhead(ImagePlus source) {
+        long bytesPerPixel = 8 + ("Sum".equalsIgnoreCase(s.tileSource) ? 4 : Math.max(1, source.getBitDepth() / 8));
+        long bytes = (long) source.getWidth() * source.getHeight() * source.getNChannels() * bytesPerPixel;
+        long budget = memory != null ? memory.getMaxBytes() : TileMemoryCache.defaultMaxBytes();
+        long fit = Math.max(1, budget / Math.max(1, bytes));
+        return (int) Math.min(fit, Runtime.getRuntime().availableProcessors());
+    }
 
-            // Draw label if enabled
-            if (s.showLabels) {
-                String title = images[i].getTitle();
-                String label = title.contains(".") ? title.substring(0, title.lastIndexOf('.')) : title;
-                drawLabel(canvas, label, x, y, tileW, tileH, s.labelPosition);
+    private void stopProjections() {
+        for (Future<ImagePlus> f : projections.values()) f.cancel(true);
+        projections.clear();
+    }
+
+    private boolean isInset(int i) {
+        return insetRois != null && i < insetRois.length && insetRois[i] != null;
+    }
+
+    private static String titleLabel(ImagePlus source) {
+        String title = source.getTitle();
+        return title.contains(".") ? title.substring(0, title.lastIndexOf('.')) : title;
+    }
+
+    /**
+     * Magnified crop of {@code region}. When the region is enlarged, it is
+     * sampled straight from the source planes into a tile-sized array;
+     * otherwise (or where the kernels do not apply) the region is copied out
+     * of the RGB rendering and resized like any other tile.
+     */
+    private ImageProcessor insetTile(ImagePlus source, Rectangle region) {
+        if (region.width <= plan.tileW && region.height <= plan.tileH) {
+            int[] pixels = PixelKernels.regionToRGB(source, region, plan.tileW, plan.tileH);
+            if (pixels != null) return new ColorProcessor(plan.tileW, plan.tileH, pixels);
+        }
+        ImageProcessor rgb = toRGBTile(source);
+        int[] crop = new int[region.width * region.height];
+        PixelKernels.copyRect((int[]) rgb.getPixels(), rgb.getWidth(), rgb.getHeight(),
+            crop, region.width, region.height, -region.x, -region.y);
+        return fitToTile(new ColorProcessor(region.width, region.height, crop));
+    }
+
+    // Outline of a source region on a tile placed at tileX,tileY, clipped to the tile
+    private void drawOutline(ColorProcessor target, Rectangle region, int sourceW, int sourceH,
+                             int tileX, int tileY) {
+        double sx = (double) plan.tileW / sourceW;
+        double sy = (double) plan.tileH / sourceH;
+        int x0 = (int) Math.round(region.x * sx);
+        int y0 = (int) Math.round(region.y * sy);
+        int x1 = Math.min(plan.tileW, (int) Math.round((region.x + region.width) * sx));
+        int y1 = Math.min(plan.tileH, (int) Math.round((region.y + region.height) * sy));
+        int lw = Math.min(plan.outlineWidth, Math.max(1, Math.min(x1 - x0, y1 - y0) / 2));
+        int[] pixels = (int[]) target.getPixels();
+        int stride = target.getWidth();
+        int rows = target.getHeight();
+        fillClipped(pixels, stride, rows, tileX + x0, tileY + y0, x1 - x0, lw);
+        fillClipped(pixels, stride, rows, tileX + x0, tileY + y1 - lw, x1 - x0, lw);
+        fillClipped(pixels, stride, rows, tileX + x0, tileY + y0, lw, y1 - y0);
+        fillClipped(pixels, stride, rows, tileX + x1 - lw, tileY + y0, lw, y1 - y0);
+    }
+
+    private void fillClipped(int[] pixels, int stride, int rows, int x, int y, int w, int h) {
+        int xa = Math.max(0, x);
+        int ya = Math.max(0, y);
+        int xb = Math.min(stride, x + w);
+        int yb = Math.min(rows, y + h);
+        if (xb > xa && yb > ya) PixelKernels.fillRect(pixels, stride, xa, ya, xb - xa, yb - ya, plan.outlineColor);
+    }
+
+    private void startLoader() {
+        if (sources == null) return;
+        loader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Insta Montage prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private void stopLoader() {
+        if (loader == null) return;
+        if (pending != null) pending.cancel(true);
+        pending = null;
+        pendingIndex = -1;
+        loader.shutdownNow();
+        loader = null;
+    }
+
+    // Returns source i; in lazy mode waits for its decode and starts the next one
+    private ImagePlus acquire(int i) {
+        if (sources == null) return images[i];
+        if (images[i] == null) {
+            if (pendingIndex == i) {
+                images[i] = await(pending);
+                pending = null;
+                pendingIndex = -1;
+            } else {
+                images[i] = loadNow(sources[i], s);
             }
+        }
+        int next = i + 1;
+        if (next < sources.length && images[next] == null && pendingIndex != next) {
+            LazySource source = sources[next];
+            pending = loader.submit(() -> source.load(s.tileSource, s.zStart, s.zEnd));
+            pendingIndex = next;
+        }
+        return images[i];
+    }
 
-            // Draw scale bar on the designated image only
-            if (s.showScaleBar && i == s.scaleBarImageIndex) {
-                drawScaleBar(canvas, images[i], x, y, tileW, tileH, s.scaleBarPosition);
+    private static ImagePlus loadNow(LazySource source, MontageSettings s) {
+        try {
+            return source.load(s.tileSource, s.zStart, s.zEnd);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ImagePlus await(Future<ImagePlus> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while loading a source", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw new UncheckedIOException((IOException) cause);
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /** Enables the on-disk cache for whole montages and prepared tiles. */
+    public void setRenderCache(RenderCache cache) {
+        this.cache = cache;
+    }
+
+    /** Keeps prepared tiles in memory across renders (e.g. for the life of the dialog). */
+    public void setTileMemory(TileMemoryCache memory) {
+        this.memory = memory;
+    }
+
+    // Prepared tile from memory, then the disk cache, then prepareTile()
+    private ImageProcessor prepareCachedTile(ImagePlus source, long hash) {
+        if (cache == null && memory == null) return prepareTile(source);
+        String tileKey = RenderCache.tileKey(hash, source, plan.tileW, plan.tileH);
+        ImageProcessor tile = memory != null ? memory.get(tileKey) : null;
+        if (tile == null && cache != null) tile = cache.get(tileKey);
+        if (tile == null || tile.getWidth() != plan.tileW || tile.getHeight() != plan.tileH) {
+            tile = prepareTile(source);
+            // An RGB source already at tile size comes back as its own processor
+            if (tile == source.getProcessor()) tile = tile.duplicate();
+            if (cache != null && tile instanceof ColorProcessor) cache.put(tileKey, (ColorProcessor) tile);
+        }
+        if (memory != null && tile instanceof ColorProcessor) memory.put(tileKey, (ColorProcessor) tile);
+        return tile;
+    }
+
+    // Flatten, convert to RGB and resize one source to the tile size
+    private ImageProcessor prepareTile(ImagePlus source) {
+        return fitToTile(toRGBTile(source));
+    }
+
+    // The displayed plane as RGB; may be the source's own processor for RGB images
+    static ImageProcessor toRGBTile(ImagePlus source) {
+        ImageProcessor tile = PixelKernels.toRGB(source);
+        if (tile == null) {
+            if (source.isComposite() || source.getNChannels() > 1) {
+                source = source.flatten();
             }
+            tile = source.getProcessor().convertToRGB();
         }
+        return tile;
+    }
 
-        // Show result as a new image window
-        ImagePlus result = new ImagePlus("Insta Montage", canvas);
-        result.show();
-        copyToClipboard(canvas);
+    // Resizes an RGB tile to the plan's tile size
+    private ImageProcessor fitToTile(ImageProcessor tile) {
+        if (tile.getWidth() != plan.tileW || tile.getHeight() != plan.tileH) {
+            PixelKernels.Resampler resampler = plan.resampler;
+            if (PixelKernels.isEnabled() && resampler != null && resampler.accepts(tile.getWidth(), tile.getHeight())
+                && tile.getInterpolationMethod() == ImageProcessor.NONE) {
+                tile = new ColorProcessor(plan.tileW, plan.tileH, resampler.apply((int[]) tile.getPixels()));
+            } else {
+                // An RGB source's own processor carries its ROI, which resize() would crop to
+                Rectangle roi = tile.getRoi();
+                if (tile instanceof ColorProcessor && (roi.width != tile.getWidth() || roi.height != tile.getHeight())) {
+                    int interpolation = tile.getInterpolationMethod();
+                    tile = new ColorProcessor(tile.getWidth(), tile.getHeight(), (int[]) tile.getPixels());
+                    tile.setInterpolationMethod(interpolation);
+                }
+                tile = tile.resize(plan.tileW, plan.tileH, true);
+            }
+        }
+        return tile;
+    }
+
+    /** Number of tiles in the last render that reused an identical prepared tile. */
+    public int getDedupHits() {
+        return dedupHits;
     }
 
-    private void drawLabel(ColorProcessor canvas, String text,
-                           int tileX, int tileY, int tileW, int tileH,
-                           String position) {
-        int fontSize = Math.max(10, tileH / 20);
-        Font font = new Font("SansSerif", Font.BOLD, fontSize);
-        int padding = fontSize / 2;
+    /** Fraction of tiles in the last render served from an identical prepared tile. */
+    public double getDedupHitRate() {
+        return images.length == 0 ? 0 : (double) dedupHits / images.length;
+    }
+
+    public int getCanvasWidth() {
+        return plan == null ? 0 : plan.canvasW;
+    }
+
+    public int getCanvasHeight() {
+        return plan == null ? 0 : plan.canvasH;
+    }
 
-        canvas.setFont(font);
+    private void drawLabel(ColorProcessor canvas, String text, int tileX, int tileY) {
+        canvas.setFont(plan.labelFont);
         canvas.setColor(Color.WHITE);
+        int textW = canvas.getFontMetrics().stringWidth(text);
+        canvas.drawString(text, plan.labelX(tileX, textW), tileY + plan.labelDy);
+    }
 
-        FontMetrics fm = canvas.getFontMetrics();
-        int textW = fm.stringWidth(text);
-        int textH = fontSize;
-
-        int x, y;
-        switch (position) {
-            case "Top Right":
-                x = tileX + tileW - textW - padding;
-                y = tileY + padding + textH;
-                break;
-            case "Bottom Left":
-                x = tileX + padding;
-                y = tileY + tileH - padding;
-                break;
-            case "Bottom Right":
-                x = tileX + tileW - textW - padding;
-                y = tileY + tileH - padding;
-                break;
-            default: // Top Left
-                x = tileX + padding;
-                y = tileY + padding + textH;
-                break;
-        }
-
-        // Clamp so label never spills outside tile
-        if (x < tileX) x = tileX;
-        if (x + textW > tileX + tileW) x = tileX + tileW - textW;
-
-        canvas.drawString(text, x, y);
-    }
-
-    private void drawScaleBar(ColorProcessor canvas, ImagePlus imp,
-                              int tileX, int tileY, int tileW, int tileH,
-                              String position) {
-        // Get pixel size from image calibration
-        double pixelSize = imp.getCalibration().pixelWidth;
-        if (pixelSize <= 0) pixelSize = 1.0;
-
-        int barLengthPx = (int) Math.round(s.scaleBarLength / pixelSize);
-        if (barLengthPx < 1) barLengthPx = 1;
-        if (barLengthPx > tileW / 2) barLengthPx = tileW / 2;
-
-        int barHeight = Math.max(3, tileH / 40);
-        int padding = tileH / 20;
-
-        int x, y;
-        switch (position) {
-            case "Top Left":
-                x = tileX + padding;
-                y = tileY + padding;
-                break;
-            case "Top Right":
-                x = tileX + tileW - barLengthPx - padding;
-                y = tileY + padding;
-                break;
-            case "Bottom Left":
-                x = tileX + padding;
-                y = tileY + tileH - barHeight - padding;
-                break;
-            default: // Bottom Right
-                x = tileX + tileW - barLengthPx - padding;
-                y = tileY + tileH - barHeight - padding;
-                break;
-        }
+    private void drawScaleBar(ColorProcessor canvas, ImagePlus imp, double pixelSize, int tileX, int tileY) {
+        // Bar length depends on the image calibration (and an inset's magnification)
+        int barLengthPx = plan.barLength(pixelSize);
+        int x = plan.barX(tileX, barLengthPx);
+        int y = tileY + plan.barDy;
 
         // Draw the scale bar rectangle
-        canvas.setColor(s.scaleBarColor);
-        canvas.fillRect(x, y, barLengthPx, barHeight);
+        canvas.setColor(plan.scaleBarColor);
+        canvas.fillRect(x, y, barLengthPx, plan.barHeight);
 
         // Draw scale bar label centered over the bar
         String unit = imp.getCalibration().getUnit();
-        String label = (int) s.scaleBarLength + " " + unit;
-        int fontSize = Math.max(8, tileH / 25);
-        Font font = new Font("SansSerif", Font.PLAIN, fontSize);
-        canvas.setFont(font);
-        canvas.setColor(s.scaleBarColor);
-
+        String label = (int) plan.scaleBarLength + " " + unit;
+        canvas.setFont(plan.scaleBarFont);
         FontMetrics fm = canvas.getFontMetrics();
         int labelWidth = fm.stringWidth(label);
-
-        // Center label over scale bar
         int labelX = x + (barLengthPx / 2) - (labelWidth / 2);
 
         // Clamp so it never spills outside the tile
         if (labelX < tileX) labelX = tileX;
-        if (labelX + labelWidth > tileX + tileW) labelX = tileX + tileW - labelWidth;
+        if (labelX + labelWidth > tileX + plan.tileW) labelX = tileX + plan.tileW - labelWidth;
 
-        int labelY = (position.startsWith("Top"))
-            ? y + barHeight + fontSize + 2
+        int labelY = plan.scaleBarCorner.isTop()
+            ? y + plan.barHeight + plan.scaleBarFont.getSize() + 2
             : y - 4;
         canvas.drawString(label, labelX, labelY);
     }
+
     private void copyToClipboard(ColorProcessor cp) {
-        BufferedImage bi = new BufferedImage(cp.getWidth(), cp.getHeight(), BufferedImage.TYPE_INT_RGB);
-        bi.getGraphics().drawImage(cp.createImage(), 0, 0, null);
+        // Wrap the canvas pixels directly instead of painting a full-size copy
+        int[] pixels = (int[]) cp.getPixels();
+        DirectColorModel cm = new DirectColorModel(24, 0xff0000, 0x00ff00, 0x0000ff);
+        WritableRaster raster = Raster.createPackedRaster(
+            new DataBufferInt(pixels, pixels.length),
+            cp.getWidth(), cp.getHeight(), cp.getWidth(), cm.getMasks(), null);
+        BufferedImage bi = new BufferedImage(cm, raster, false, null);
 
         Transferable transferable = new Transferable() {
             public DataFlavor[] getTransferDataFlavors() {
@@ -225,4 +648,17 @@ public class MontageProcessor {
 
         Toolkit.getDefaultToolkit().getSystemClipboard().setContents(transferable, null);
     }
-}
\ No newline at end of file
+
+    // A prepared tile and the source it was made from. The source is held
+    // weakly so lazy sources can still be released once placed; a tile whose
+    // source is gone is simply not shared.
+    private static class PreparedTile {
+        final WeakReference<ImagePlus> source;
+        final ImageProcessor tile;
+
+        PreparedTile(ImagePlus source, ImageProcessor tile) {
+            this.source = new WeakReference<>(source);
+            this.tile = tile;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package insta_montage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Montage settings saved as a versioned properties file, so a layout made
+ * in the dialog can be reused by batch runs.
+ *
+ * The file holds {@code recipe.version} plus one key per MontageSettings
+ * field. Keys a reader does not know are ignored and missing keys keep their
+ * defaults; a file from a newer recipe version is rejected.
+ */
+public class MontageRecipe {
+
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".recipe";
+
+    private static final String VERSION_KEY = "recipe.version";
+
+    private MontageRecipe() {
+    }
+
+    public static void save(MontageSettings settings, File file) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(VERSION_KEY, String.valueOf(VERSION));
+        for (Map.Entry<String, String> e : settings.toMap().entrySet()) {
+            props.setProperty(e.getKey(), e.getValue());
+        }
+
+        // Properties escapes every entry onto one line; sort them for readable diffs
+        StringWriter out = new StringWriter();
+        props.store(out, Main.PLUGIN_NAME + " recipe");
+        List<String> header = new ArrayList<>();
+        List<String> entries = new ArrayList<>();
+        for (String line : out.toString().split("\r?\n")) {
+            (line.startsWith("#") ? header : entries).add(line);
+        }
+        Collections.sort(entries);
+        header.addAll(entries);
+        Files.write(file.toPath(), header, StandardCharsets.ISO_8859_1);
+    }
+
+    public static MontageSettings load(File file) throws IOException {
+        Properties props = new Properties();
+        try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.ISO_8859_1)) {
+            props.load(in);
+        }
+        String version = props.getProperty(VERSION_KEY);
+        if (version == null) throw new IOException(file.getName() + " is not a montage recipe");
+        int v;
+        try {
+            v = Integer.parseInt(version.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(file.getName() + " has a malformed recipe version: " + version);
+        }
+        if (v > VERSION) {
+            throw new IOException(file.getName() + " is recipe version " + v
+                + "; this plugin reads up to version " + VERSION);
+        }
+
+        Map<String, String> m = new TreeMap<>();
+        for (String key : props.stringPropertyNames()) {
+            if (!key.equals(VERSION_KEY)) m.put(key, props.getProperty(key));
+        }
+        return MontageSettings.fromMap(m);
+    }
+}
@@ -1,6 +1,8 @@
 package insta_montage;
 
 import java.awt.Color;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class MontageSettings {
 
@@ -27,6 +29,19 @@ public class MontageSettings {
     public double scaleBarLength;   // in physical units (e.g. microns)
     public Color scaleBarColor;
 
+    // Tile source
+    public String tileSource; // "Plane", or a projection over Z: "Max", "Mean", "Sum"
+    public int zStart;        // first slice of the projection, 1-based
+    public int zEnd;          // last slice, inclusive; 0 = last slice of each image
+
+    // Split-channel montages
+    public boolean grayscaleChannels; // channel tiles in gray instead of their LUT colour
+
+    // ROI insets
+    public boolean roiInsets;         // add a magnified tile of each image's ROI after the image
+    public boolean insetOutline;      // outline the inset region on the parent tile
+    public Color insetOutlineColor;
+
     public MontageSettings() {
         // Sensible defaults
         rows = 2;
@@ -41,5 +56,112 @@ public class MontageSettings {
         scaleBarImageIndex = 0;
         scaleBarLength = 10.0;
         scaleBarColor = Color.WHITE;
+        tileSource = "Plane";
+        zStart = 1;
+        zEnd = 0;
+        grayscaleChannels = false;
+        roiInsets = false;
+        insetOutline = true;
+        insetOutlineColor = Color.WHITE;
+    }
+
+    /**
+     * Every setting as key=value lines in a fixed key order, so equal
+     * settings always give the same string (used as a cache key).
+     */
+    public String toCanonicalString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : toMap().entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Every setting by key, in key order. */
+    Map<String, String> toMap() {
+        Map<String, String> m = new TreeMap<>();
+        m.put("rows", String.valueOf(rows));
+        m.put("cols", String.valueOf(cols));
+        m.put("borderThickness", String.valueOf(borderThickness));
+        m.put("borderColor", toHex(borderColor));
+        m.put("expandCanvas", String.valueOf(expandCanvas));
+        m.put("showLabels", String.valueOf(showLabels));
+        m.put("labelPosition", String.valueOf(labelPosition));
+        m.put("labelTexts", labelTexts == null ? "" : String.join("\u0000", labelTexts));
+        m.put("showScaleBar", String.valueOf(showScaleBar));
+        m.put("scaleBarPosition", String.valueOf(scaleBarPosition));
+        m.put("scaleBarImageIndex", String.valueOf(scaleBarImageIndex));
+        m.put("scaleBarLength", String.valueOf(scaleBarLength));
+        m.put("scaleBarColor", toHex(scaleBarColor));
+        m.put("tileSource", String.valueOf(tileSource));
+        m.put("zStart", String.valueOf(zStart));
+        m.put("zEnd", String.valueOf(zEnd));
+        m.put("grayscaleChannels", String.valueOf(grayscaleChannels));
+        m.put("roiInsets", String.valueOf(roiInsets));
+        m.put("insetOutline", String.valueOf(insetOutline));
+        m.put("insetOutlineColor", toHex(insetOutlineColor));
+        return m;
+    }
+
+    /** Parses the output of {@link #toCanonicalString()}; unknown or missing keys keep their defaults. */
+    public static MontageSettings fromCanonicalString(String text) {
+        Map<String, String> m = new TreeMap<>();
+        for (String line : text.split("\n")) {
+            int eq = line.indexOf('=');
+            if (eq < 0) continue;
+            m.put(line.substring(0, eq).trim(), line.substring(eq + 1));
+        }
+        return fromMap(m);
+    }
+
+    /** Settings from {@link #toMap()} output; unknown or missing keys keep their defaults. */
+    static MontageSettings fromMap(Map<String, String> m) {
+        MontageSettings s = new MontageSettings();
+        for (Map.Entry<String, String> entry : m.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            try {
+                switch (key) {
+                    case "rows": s.rows = Integer.parseInt(value.trim()); break;
+                    case "cols": s.cols = Integer.parseInt(value.trim()); break;
+                    case "borderThickness": s.borderThickness = Integer.parseInt(value.trim()); break;
+                    case "borderColor": s.borderColor = fromHex(value, s.borderColor); break;
+                    case "expandCanvas": s.expandCanvas = Boolean.parseBoolean(value.trim()); break;
+                    case "showLabels": s.showLabels = Boolean.parseBoolean(value.trim()); break;
+                    case "labelPosition": s.labelPosition = value.trim(); break;
+                    case "labelTexts": s.labelTexts = value.isEmpty() ? null : value.split("\u0000", -1); break;
+                    case "showScaleBar": s.showScaleBar = Boolean.parseBoolean(value.trim()); break;
+                    case "scaleBarPosition": s.scaleBarPosition = value.trim(); break;
+                    case "scaleBarImageIndex": s.scaleBarImageIndex = Integer.parseInt(value.trim()); break;
+                    case "scaleBarLength": s.scaleBarLength = Double.parseDouble(value.trim()); break;
+                    case "scaleBarColor": s.scaleBarColor = fromHex(value, s.scaleBarColor); break;
+                    case "tileSource": s.tileSource = value.trim(); break;
+                    case "zStart": s.zStart = Integer.parseInt(value.trim()); break;
+                    case "zEnd": s.zEnd = Integer.parseInt(value.trim()); break;
+                    case "grayscaleChannels": s.grayscaleChannels = Boolean.parseBoolean(value.trim()); break;
+                    case "roiInsets": s.roiInsets = Boolean.parseBoolean(value.trim()); break;
+                    case "insetOutline": s.insetOutline = Boolean.parseBoolean(value.trim()); break;
+                    case "insetOutlineColor": s.insetOutlineColor = fromHex(value, s.insetOutlineColor); break;
+                    default: break;
+                }
+            } catch (NumberFormatException e) {
+                // Keep the default for a malformed value
+            }
+        }
+        return s;
+    }
+
+    static Color fromHex(String hex, Color fallback) {
+        hex = hex.trim();
+        if (!hex.startsWith("#")) return fallback;
+        try {
+            return new Color(Integer.parseInt(hex.substring(1), 16));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    static String toHex(Color c) {
+        return c == null ? "" : String.format("#%06x", c.getRGB() & 0xffffff);
     }
-}
\ No newline at end of file
+}
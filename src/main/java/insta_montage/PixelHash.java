@@ -0,0 +1,241 @@
+package insta_montage;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.ImageRoi;
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import ij.gui.TextRoi;
+import ij.process.FloatPolygon;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Fast non-cryptographic 64-bit fingerprints of what a tile will look like:
+ * the displayed plane's pixels plus everything that affects how they are
+ * rendered (size, LUTs, display ranges, composite mode, active channels and
+ * overlay).
+ */
+public class PixelHash {
+
+    private static final long SEED = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    // Pixels read per plane by sparse()
+    private static final int SPARSE_SAMPLES = 1024;
+
+    private PixelHash() {
+    }
+
+    /** Fingerprint of the displayed Z/T plane of {@code imp} and its display settings. */
+    public static long of(ImagePlus imp) {
+        return fingerprint(imp, false);
+    }
+
+    /**
+     * Like {@link #of}, but reads at most SPARSE_SAMPLES evenly spaced pixels
+     * per plane. Cheap enough to run for every open image on the EDT; a
+     * change it reports can be confirmed with {@link #of}.
+     */
+    public static long sparse(ImagePlus imp) {
+        return fingerprint(imp, true);
+    }
+
+    private static long fingerprint(ImagePlus imp, boolean sparse) {
+        long h = SEED;
+        h = mix(h, imp.getWidth());
+        h = mix(h, imp.getHeight());
+        h = mix(h, imp.getBitDepth());
+        // Overlays are burned in by flatten()
+        h = mix(h, ofOverlay(imp));
+
+        if (imp.isComposite()) {
+            CompositeImage ci = (CompositeImage) imp;
+            h = mix(h, ci.getMode());
+            for (boolean active : ci.getActiveChannels()) h = mix(h, active ? 1 : 0);
+            ImageStack stack = imp.getStack();
+            for (int c = 1; c <= imp.getNChannels(); c++) {
+                h = mixLut(h, ci.getChannelLut(c));
+                h = mixPlane(h, stack.getPixels(imp.getStackIndex(c, imp.getZ(), imp.getT())), sparse);
+            }
+        } else {
+            ImageProcessor ip = imp.getProcessor();
+            h = mix(h, Double.doubleToLongBits(ip.getMin()));
+            h = mix(h, Double.doubleToLongBits(ip.getMax()));
+            if (imp.getBitDepth() != 24) h = mixLut(h, ip.getLut());
+            h = mixPlane(h, ip.getPixels(), sparse);
+        }
+        return h;
+    }
+
+    /**
+     * Whether the displayed Z/T planes of {@code a} and {@code b} (every
+     * channel of a composite) have the same size and pixel values, to confirm
+     * that equal fingerprints are not a collision. False if either is null.
+     */
+    public static boolean samePixels(ImagePlus a, ImagePlus b) {
+        if (a == null || b == null) return false;
+        if (a == b) return true;
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()
+            || a.getBitDepth() != b.getBitDepth() || a.isComposite() != b.isComposite()) {
+            return false;
+        }
+        if (!a.isComposite()) return samePlane(a.getProcessor().getPixels(), b.getProcessor().getPixels());
+        if (a.getNChannels() != b.getNChannels()) return false;
+        ImageStack sa = a.getStack();
+        ImageStack sb = b.getStack();
+        for (int c = 1; c <= a.getNChannels(); c++) {
+            if (!samePlane(sa.getPixels(a.getStackIndex(c, a.getZ(), a.getT())),
+                sb.getPixels(b.getStackIndex(c, b.getZ(), b.getT())))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean samePlane(Object a, Object b) {
+        if (a == b) return true;
+        if (a instanceof byte[] && b instanceof byte[]) return Arrays.equals((byte[]) a, (byte[]) b);
+        if (a instanceof short[] && b instanceof short[]) return Arrays.equals((short[]) a, (short[]) b);
+        if (a instanceof float[] && b instanceof float[]) return Arrays.equals((float[]) a, (float[]) b);
+        if (a instanceof int[] && b instanceof int[]) return Arrays.equals((int[]) a, (int[]) b);
+        return false;
+    }
+
+    private static long mixPlane(long h, Object pixels, boolean sparse) {
+        if (!sparse) return mixPixels(h, pixels);
+        int length = Array.getLength(pixels);
+        int step = Math.max(1, length / SPARSE_SAMPLES);
+        h = mix(h, length);
+        if (pixels instanceof byte[]) {
+            byte[] px = (byte[]) pixels;
+            for (int i = 0; i < length; i += step) h = (h ^ px[i]) * PRIME;
+        } else if (pixels instanceof short[]) {
+            short[] px = (short[]) pixels;
+            for (int i = 0; i < length; i += step) h = (h ^ px[i]) * PRIME;
+        } else if (pixels instanceof float[]) {
+            float[] px = (float[]) pixels;
+            for (int i = 0; i < length; i += step) h = (h ^ Float.floatToRawIntBits(px[i])) * PRIME;
+        } else if (pixels instanceof int[]) {
+            int[] px = (int[]) pixels;
+            for (int i = 0; i < length; i += step) h = (h ^ px[i]) * PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Fingerprint of what flatten() draws from the overlay of {@code imp}:
+     * every ROI's shape, colours, stroke, position and text or image, plus
+     * the overlay's label settings. 0 when there is no overlay.
+     */
+    public static long ofOverlay(ImagePlus imp) {
+        Overlay overlay = imp.getOverlay();
+        if (overlay == null) return 0;
+        long h = mix(SEED, overlay.size());
+        h = mix(h, imp.getHideOverlay() ? 1 : 0);
+        h = mix(h, (overlay.getDrawLabels() ? 1 : 0) | (overlay.getDrawNames() ? 2 : 0)
+            | (overlay.getDrawBackgrounds() ? 4 : 0));
+        h = mixColor(h, overlay.getLabelColor());
+        h = mixFont(h, overlay.getLabelFont());
+        for (int i = 0; i < overlay.size(); i++) {
+            h = mixRoi(h, overlay.get(i));
+        }
+        return h;
+    }
+
+    private static long mixRoi(long h, Roi roi) {
+        h = mixString(h, roi.getClass().getName());
+        h = mix(h, roi.getType());
+        FloatPolygon p = roi.getFloatPolygon();
+        for (int i = 0; i < p.npoints; i++) {
+            h = mix(h, Float.floatToIntBits(p.xpoints[i]));
+            h = mix(h, Float.floatToIntBits(p.ypoints[i]));
+        }
+        h = mixColor(h, roi.getStrokeColor());
+        h = mixColor(h, roi.getFillColor());
+        h = mix(h, Float.floatToIntBits(roi.getStrokeWidth()));
+        h = mixString(h, roi.getName());
+        h = mix(h, roi.getPosition());
+        h = mix(h, roi.getCPosition());
+        h = mix(h, roi.getZPosition());
+        h = mix(h, roi.getTPosition());
+        if (roi instanceof TextRoi) {
+            TextRoi text = (TextRoi) roi;
+            h = mixString(h, text.getText());
+            h = mixFont(h, text.getCurrentFont());
+            h = mix(h, text.getJustification());
+            h = mix(h, Double.doubleToLongBits(text.getAngle()));
+        } else if (roi instanceof ImageRoi) {
+            ImageRoi image = (ImageRoi) roi;
+            h = mix(h, Double.doubleToLongBits(image.getOpacity()));
+            h = mix(h, image.getZeroTransparent() ? 1 : 0);
+            ImageProcessor ip = image.getProcessor();
+            if (ip != null) h = mixPixels(h, ip.getPixels());
+        }
+        return h;
+    }
+
+    private static long mixColor(long h, Color c) {
+        return mix(h, c == null ? 0 : 0x100000000L | (c.getRGB() & 0xffffffffL));
+    }
+
+    private static long mixFont(long h, Font f) {
+        if (f == null) return mix(h, 0);
+        h = mixString(h, f.getName());
+        h = mix(h, f.getStyle());
+        return mix(h, Float.floatToIntBits(f.getSize2D()));
+    }
+
+    private static long mixString(long h, String s) {
+        if (s == null) return mix(h, 0);
+        h = mix(h, s.length());
+        for (int i = 0; i < s.length(); i++) h = mix(h, s.charAt(i));
+        return h;
+    }
+
+    /** Fingerprint of a LUT's colours and display range. */
+    public static long ofLut(LUT lut) {
+        return mixLut(SEED, lut);
+    }
+
+    private static long mixLut(long h, LUT lut) {
+        h = mix(h, Double.doubleToLongBits(lut.min));
+        h = mix(h, Double.doubleToLongBits(lut.max));
+        byte[] r = new byte[256];
+        byte[] g = new byte[256];
+        byte[] b = new byte[256];
+        lut.getReds(r);
+        lut.getGreens(g);
+        lut.getBlues(b);
+        h = mixPixels(h, r);
+        h = mixPixels(h, g);
+        return mixPixels(h, b);
+    }
+
+    static long mixPixels(long h, Object pixels) {
+        if (pixels instanceof byte[]) {
+            byte[] px = (byte[]) pixels;
+            for (byte v : px) h = (h ^ v) * PRIME;
+        } else if (pixels instanceof short[]) {
+            short[] px = (short[]) pixels;
+            for (short v : px) h = (h ^ v) * PRIME;
+        } else if (pixels instanceof float[]) {
+            float[] px = (float[]) pixels;
+            for (float v : px) h = (h ^ Float.floatToRawIntBits(v)) * PRIME;
+        } else if (pixels instanceof int[]) {
+            int[] px = (int[]) pixels;
+            for (int v : px) h = (h ^ v) * PRIME;
+        }
+        return h;
+    }
+
+    static long mix(long h, long v) {
+        return (h ^ v) * PRIME;
+    }
+}
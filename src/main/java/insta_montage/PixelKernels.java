@@ -0,0 +1,589 @@
+package insta_montage;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+import ij.process.ShortProcessor;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Tight per-pixel loops for the montage hot paths: LUT mapping of 8/16-bit
+ * planes to RGB, additive channel blending, bilinear resampling and
+ * rectangle fill/copy on packed RGB arrays. Channel blending is fused into
+ * one pass over the output and split into blocks across cores, and so is
+ * split-channel rendering (every channel plus the merge).
+ *
+ * LUT mapping goes through a lookup table that ImageJ itself fills from a
+ * ramp image, so the result matches ImageJ's own display exactly. Anything
+ * the kernels do not cover (float channels, non-additive composite modes,
+ * overlays) returns null and the caller takes the regular ImageJ path.
+ *
+ * Set -Dinsta_montage.kernels=off, or call setEnabled(false), to force the
+ * ImageJ path everywhere.
+ */
+public class PixelKernels {
+
+    // Pixels per parallel work unit; small enough to stay in L2 across channels
+    private static final int BLOCK = 1 << 15;
+
+    private static volatile boolean enabled =
+        !"off".equalsIgnoreCase(System.getProperty("insta_montage.kernels"));
+
+    private PixelKernels() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Renders the displayed plane of {@code imp} to RGB the way flatten()
+     * would, or returns null if the kernels cannot reproduce it exactly.
+     */
+    public static ColorProcessor toRGB(ImagePlus imp) {
+        List<Object> planes = new ArrayList<>();
+        List<int[]> tables = new ArrayList<>();
+        if (!displayPlanes(imp, planes, tables)) return null;
+
+        int[] rgb = new int[imp.getWidth() * imp.getHeight()];
+        if (imp.isComposite()) {
+            blend(planes.toArray(), tables.toArray(new int[0][]), rgb);
+        } else {
+            map(planes.get(0), tables.get(0), rgb);
+        }
+        return new ColorProcessor(imp.getWidth(), imp.getHeight(), rgb);
+    }
+
+    /**
+     * Renders region {@code r} of the displayed plane of {@code imp} to RGB
+     * at dw x dh, with the nearest-neighbour mapping of
+     * ImageProcessor.resize() without interpolation. Only the sampled source
+     * pixels are read, so no crop or full-size RGB copy is made. Covers what
+     * toRGB() covers plus RGB images; returns null otherwise.
+     */
+    public static int[] regionToRGB(ImagePlus imp, Rectangle r, int dw, int dh) {
+        int w = imp.getWidth();
+        double xScale = (double) dw / r.width;
+        double yScale = (double) dh / r.height;
+        int[] xs = new int[dw];
+        for (int x = 0; x < dw; x++) xs[x] = r.x + (int) ((x - dw / 2.0) / xScale + r.width / 2.0);
+        int[] rows = new int[dh];
+        for (int y = 0; y < dh; y++) rows[y] = w * (r.y + (int) ((y - dh / 2.0) / yScale + r.height / 2.0));
+
+        int[] dst = new int[dw * dh];
+        if (enabled && imp.getOverlay() == null && imp.getBitDepth() == 24) {
+            int[] px = (int[]) imp.getProcessor().getPixels();
+            for (int y = 0; y < dh; y++) {
+                for (int x = 0; x < dw; x++) dst[y * dw + x] = px[rows[y] + xs[x]];
+            }
+            return dst;
+        }
+
+        List<Object> planes = new ArrayList<>();
+        List<int[]> tables = new ArrayList<>();
+        if (!displayPlanes(imp, planes, tables)) return null;
+        if (!imp.isComposite()) {
+            Object plane = planes.get(0);
+            int[] table = tables.get(0);
+            for (int y = 0; y < dh; y++) sampleRow(plane, table, rows[y], xs, dst, y * dw);
+            return dst;
+        }
+        long[][] wide = new long[tables.size()][];
+        for (int c = 0; c < wide.length; c++) wide[c] = widen(tables.get(c));
+        IntStream.range(0, dh).parallel().forEach(y -> {
+            long[] acc = new long[dw];
+            for (int c = 0; c < wide.length; c++) accumulateRow(planes.get(c), wide[c], rows[y], xs, acc);
+            saturate(acc, dst, y * dw);
+        });
+        return dst;
+    }
+
+    // Displayed planes of imp and their display tables (one per active
+    // channel), or false when the kernels cannot reproduce imp's display
+    private static boolean displayPlanes(ImagePlus imp, List<Object> planes, List<int[]> tables) {
+        if (!enabled || imp.getOverlay() != null) return false;
+        int bitDepth = imp.getBitDepth();
+        if (bitDepth != 8 && bitDepth != 16) return false;
+
+        if (imp.isComposite()) {
+            CompositeImage ci = (CompositeImage) imp;
+            String projection = ci.getProp("CompositeProjection");
+            boolean sum = projection == null || projection.equalsIgnoreCase("Sum")
+                || projection.equalsIgnoreCase("composite sum");
+            if (ci.getMode() != CompositeImage.COMPOSITE || !sum) return false;
+
+            boolean[] active = ci.getActiveChannels();
+            ImageStack stack = imp.getStack();
+            for (int c = 1; c <= imp.getNChannels(); c++) {
+                if (c - 1 < active.length && !active[c - 1]) continue;
+                LUT lut = ci.getChannelLut(c);
+                tables.add(rgbTable(bitDepth, lut, lut.min, lut.max));
+                planes.add(stack.getPixels(imp.getStackIndex(c, imp.getZ(), imp.getT())));
+            }
+            return true;
+        }
+        if (imp.getNChannels() != 1) return false;
+        ImageProcessor ip = imp.getProcessor();
+        tables.add(rgbTable(bitDepth, ip.getLut(), ip.getMin(), ip.getMax()));
+        planes.add(ip.getPixels());
+        return true;
+    }
+
+    private static void sampleRow(Object src, int[] table, int row, int[] xs, int[] dst, int out) {
+        if (src instanceof byte[]) {
+            byte[] px = (byte[]) src;
+            for (int x = 0; x < xs.length; x++) dst[out + x] = table[px[row + xs[x]] & 0xff];
+        } else {
+            short[] px = (short[]) src;
+            for (int x = 0; x < xs.length; x++) dst[out + x] = table[px[row + xs[x]] & 0xffff];
+        }
+    }
+
+    private static void accumulateRow(Object src, long[] table, int row, int[] xs, long[] acc) {
+        if (src instanceof byte[]) {
+            byte[] px = (byte[]) src;
+            for (int x = 0; x < xs.length; x++) acc[x] += table[px[row + xs[x]] & 0xff];
+        } else {
+            short[] px = (short[]) src;
+            for (int x = 0; x < xs.length; x++) acc[x] += table[px[row + xs[x]] & 0xffff];
+        }
+    }
+
+    /** Display colour for every possible 8/16-bit value under the given LUT and range. */
+    public static int[] rgbTable(int bitDepth, LUT lut, double min, double max) {
+        ImageProcessor ramp;
+        if (bitDepth == 8) {
+            byte[] px = new byte[256];
+            for (int i = 0; i < px.length; i++) px[i] = (byte) i;
+            ramp = new ByteProcessor(256, 1, px);
+        } else {
+            short[] px = new short[65536];
+            for (int i = 0; i < px.length; i++) px[i] = (short) i;
+            ramp = new ShortProcessor(256, 256, px, null);
+        }
+        // Work on a copy: setLut() shares the LUT, which is live channel state
+        ramp.setLut((LUT) lut.clone());
+        ramp.setMinAndMax(min, max);
+        return (int[]) ramp.convertToRGB().getPixels();
+    }
+
+    /**
+     * dst = sum over channels of table[c][plane[c]], saturating per colour
+     * component. All channels are combined in one pass over the output.
+     * Blocks of pixels are independent and go to the common pool; what that
+     * gains depends on the core count (PixelKernelsBenchmark measures it).
+     */
+    public static void blend(Object[] planes, int[][] tables, int[] dst) {
+        long[][] wide = new long[tables.length][];
+        for (int c = 0; c < tables.length; c++) wide[c] = widen(tables[c]);
+
+        int blocks = (dst.length + BLOCK - 1) / BLOCK;
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            int from = b * BLOCK;
+            int to = Math.min(dst.length, from + BLOCK);
+            long[] acc = new long[to - from];
+            for (int c = 0; c < planes.length; c++) {
+                accumulate(planes[c], wide[c], acc, from);
+            }
+            saturate(acc, dst, from);
+        });
+    }
+
+    /**
+     * Split-channel rendering in one pass over each plane: every value read
+     * is mapped through tables[c] into channels[c] and, unless mergeTables[c]
+     * is null, added into the saturating sum written to merge.
+     */
+    public static void splitBlend(Object[] planes, int[][] tables, int[][] mergeTables,
+                                  int[][] channels, int[] merge) {
+        long[][] wide = new long[planes.length][];
+        for (int c = 0; c < planes.length; c++) {
+            if (mergeTables[c] != null) wide[c] = widen(mergeTables[c]);
+        }
+
+        int blocks = (merge.length + BLOCK - 1) / BLOCK;
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            int from = b * BLOCK;
+            int to = Math.min(merge.length, from + BLOCK);
+            long[] acc = new long[to - from];
+            for (int c = 0; c < planes.length; c++) {
+                int[] table = tables[c];
+                int[] out = channels[c];
+                long[] w = wide[c];
+                if (planes[c] instanceof byte[]) {
+                    byte[] px = (byte[]) planes[c];
+                    for (int i = 0; i < acc.length; i++) {
+                        int v = px[from + i] & 0xff;
+                        out[from + i] = table[v];
+                        if (w != null) acc[i] += w[v];
+                    }
+                } else {
+                    short[] px = (short[]) planes[c];
+                    for (int i = 0; i < acc.length; i++) {
+                        int v = px[from + i] & 0xffff;
+                        out[from + i] = table[v];
+                        if (w != null) acc[i] += w[v];
+                    }
+                }
+            }
+            saturate(acc, merge, from);
+        });
+    }
+
+    // Colour components spread into 16-bit lanes so channels can be
+    // summed with plain adds and clamped once at the end
+    private static long[] widen(int[] t) {
+        long[] w = new long[t.length];
+        for (int v = 0; v < t.length; v++) {
+            w[v] = ((long) (t[v] >> 16 & 0xff) << 32) | ((t[v] >> 8 & 0xff) << 16) | (t[v] & 0xff);
+        }
+        return w;
+    }
+
+    private static void saturate(long[] acc, int[] dst, int from) {
+        for (int i = 0; i < acc.length; i++) {
+            long a = acc[i];
+            int r = (int) Math.min(255, a >>> 32);
+            int g = (int) Math.min(255, a >>> 16 & 0xffff);
+            int b = (int) Math.min(255, a & 0xffff);
+            dst[from + i] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static void accumulate(Object src, long[] table, long[] acc, int from) {
+        if (src instanceof byte[]) {
+            byte[] px = (byte[]) src;
+            for (int i = 0; i < acc.length; i++) acc[i] += table[px[from + i] & 0xff];
+        } else {
+            short[] px = (short[]) src;
+            for (int i = 0; i < acc.length; i++) acc[i] += table[px[from + i] & 0xffff];
+        }
+    }
+
+    /** dst[i] = table[src[i]] for byte or short pixels. */
+    public static void map(Object src, int[] table, int[] dst) {
+        if (src instanceof byte[]) {
+            byte[] px = (byte[]) src;
+            for (int i = 0; i < px.length; i++) dst[i] = table[px[i] & 0xff];
+        } else {
+            short[] px = (short[]) src;
+            for (int i = 0; i < px.length; i++) dst[i] = table[px[i] & 0xffff];
+        }
+    }
+
+    /** Fills a rectangle of a packed RGB image with one colour. */
+    public static void fillRect(int[] dst, int stride, int x, int y, int w, int h, int rgb) {
+        for (int row = y; row < y + h; row++) {
+            int offset = row * stride + x;
+            Arrays.fill(dst, offset, offset + w, rgb);
+        }
+    }
+
+    /** Copies a whole source image into {@code dst} at (x, y), clipped to the destination. */
+    public static void copyRect(int[] src, int sw, int sh, int[] dst, int dw, int dh, int x, int y) {
+        int x0 = Math.max(0, x);
+        int x1 = Math.min(dw, x + sw);
+        if (x1 <= x0) return;
+        for (int row = Math.max(0, y); row < Math.min(dh, y + sh); row++) {
+            System.arraycopy(src, (row - y) * sw + (x0 - x), dst, row * dw + x0, x1 - x0);
+        }
+    }
+
+    /**
+     * Bilinear resample of a packed RGB image, averaging over each output
+     * pixel's footprint when shrinking (like ImageJ's resize with averaging).
+     */
+    public static int[] resizeBilinear(int[] src, int sw, int sh, int dw, int dh) {
+        return new Resampler(sw, sh, dw, dh).apply(src);
+    }
+
+    /**
+     * Separable resampling between two fixed sizes. Source taps and weights
+     * for every output column and row are computed once, so one resampler can
+     * be reused for every image of the same size. Enlarging interpolates
+     * linearly between the two nearest pixels; shrinking uses a triangle
+     * kernel stretched to the scale factor, so no source pixel is skipped.
+     * {@link #nearest} instead picks one source pixel per output pixel, and
+     * {@link #averaging} reproduces ImageJ's averaging downsize exactly.
+     */
+    public static final class Resampler {
+        private static final int WEIGHT_BITS = 14;
+        private static final int EXTRA_BITS = 8;
+
+        private final int sw;
+        private final int sh;
+        private final int dw;
+        private final int dh;
+        private final Axis xAxis;
+        private final Axis yAxis;
+
+        // Nearest-neighbour mode: source column and row offset per output pixel
+        private final int[] nearestX;
+        private final int[] nearestRow;
+
+        // Averaging mode: ImageJ's float tables per shrunk axis (null = axis kept)
+        private final AreaAxis areaX;
+        private final AreaAxis areaY;
+
+        public Resampler(int sw, int sh, int dw, int dh) {
+            this(sw, sh, dw, dh, new Axis(sw, dw), new Axis(sh, dh), null, null, null, null);
+        }
+
+        private Resampler(int sw, int sh, int dw, int dh, Axis xAxis, Axis yAxis,
+                          int[] nearestX, int[] nearestRow, AreaAxis areaX, AreaAxis areaY) {
+            this.sw = sw;
+            this.sh = sh;
+            this.dw = dw;
+            this.dh = dh;
+            this.xAxis = xAxis;
+            this.yAxis = yAxis;
+            this.nearestX = nearestX;
+            this.nearestRow = nearestRow;
+            this.areaX = areaX;
+            this.areaY = areaY;
+        }
+
+        /**
+         * Nearest-neighbour resampling with the same pixel mapping as
+         * ImageProcessor.resize() without interpolation.
+         */
+        public static Resampler nearest(int sw, int sh, int dw, int dh) {
+            double xScale = (double) dw / sw;
+            double yScale = (double) dh / sh;
+            int[] xs = new int[dw];
+            for (int x = 0; x < dw; x++) xs[x] = (int) ((x - dw / 2.0) / xScale + sw / 2.0);
+            int[] rows = new int[dh];
+            for (int y = 0; y < dh; y++) rows[y] = sw * (int) ((y - dh / 2.0) / yScale + sh / 2.0);
+            return new Resampler(sw, sh, dw, dh, null, null, xs, rows, null, null);
+        }
+
+        /**
+         * Box averaging with the same tables, float arithmetic and rounding as
+         * ImageProcessor.resize(w, h, true) on an RGB image without
+         * interpolation, so the output is bit-identical (alpha included, which
+         * ImageJ leaves at 0). Only valid when neither side grows.
+         */
+        public static Resampler averaging(int sw, int sh, int dw, int dh) {
+            if (dw > sw || dh > sh) throw new IllegalArgumentException("averaging only shrinks");
+            return new Resampler(sw, sh, dw, dh, null, null, null, null,
+                dw < sw ? new AreaAxis(sw, dw) : null, dh < sh ? new AreaAxis(sh, dh) : null);
+        }
+
+        /**
+         * The resampler matching what ImageJ's resize(w, h, true) does to an
+         * RGB image without interpolation: averaging when it shrinks, nearest
+         * neighbour when it grows, and null when one side grows and the other
+         * shrinks (ImageJ mixes both) or nothing changes.
+         */
+        public static Resampler forImageJResize(int sw, int sh, int dw, int dh) {
+            if (dw == sw && dh == sh) return null;
+            if (dw <= sw && dh <= sh) return averaging(sw, sh, dw, dh);
+            if (dw >= sw && dh >= sh) return nearest(sw, sh, dw, dh);
+            return null;
+        }
+
+        public boolean accepts(int w, int h) {
+            return w == sw && h == sh;
+        }
+
+        public int[] apply(int[] src) {
+            if (nearestX != null) {
+                int[] dst = new int[dw * dh];
+                for (int y = 0; y < dh; y++) {
+                    int row = nearestRow[y];
+                    int out = y * dw;
+                    for (int x = 0; x < dw; x++) dst[out + x] = src[row + nearestX[x]];
+                }
+                return dst;
+            }
+            if (xAxis == null) return applyAveraging(src);
+
+            // Horizontal pass keeps EXTRA_BITS of sub-level precision per component
+            int[] tr = new int[dw * sh];
+            int[] tg = new int[dw * sh];
+            int[] tb = new int[dw * sh];
+            int shift = WEIGHT_BITS - EXTRA_BITS;
+            int taps = xAxis.taps;
+            for (int y = 0; y < sh; y++) {
+                int row = y * sw;
+                int out = y * dw;
+                for (int x = 0; x < dw; x++) {
+                    int r = 0, g = 0, b = 0;
+                    int k = x * taps;
+                    for (int t = 0; t < taps; t++) {
+                        int c = src[row + xAxis.index[k + t]];
+                        int w = xAxis.weight[k + t];
+                        r += (c >> 16 & 0xff) * w;
+                        g += (c >> 8 & 0xff) * w;
+                        b += (c & 0xff) * w;
+                    }
+                    tr[out + x] = r >> shift;
+                    tg[out + x] = g >> shift;
+                    tb[out + x] = b >> shift;
+                }
+            }
+
+            // Vertical pass, rounded back to 8 bits
+            int[] dst = new int[dw * dh];
+            int total = WEIGHT_BITS + EXTRA_BITS;
+            long half = 1L << (total - 1);
+            taps = yAxis.taps;
+            for (int y = 0; y < dh; y++) {
+                int out = y * dw;
+                int k = y * taps;
+                for (int x = 0; x < dw; x++) {
+                    long r = half, g = half, b = half;
+                    for (int t = 0; t < taps; t++) {
+                        int i = yAxis.index[k + t] * dw + x;
+                        int w = yAxis.weight[k + t];
+                        r += (long) tr[i] * w;
+                        g += (long) tg[i] * w;
+                        b += (long) tb[i] * w;
+                    }
+                    dst[out + x] = 0xff000000
+                        | (clamp(r >> total) << 16) | (clamp(g >> total) << 8) | clamp(b >> total);
+                }
+            }
+            return dst;
+        }
+
+        // One float plane per component, shrunk along x then y like FloatProcessor.downsize
+        private int[] applyAveraging(int[] src) {
+            int[] dst = new int[dw * dh];
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                float[] plane = new float[sw * sh];
+                for (int i = 0; i < plane.length; i++) plane[i] = src[i] >> shift & 0xff;
+                int w = sw;
+                if (areaX != null) {
+                    plane = areaX.scatter(plane, sh, sw, 1, dw, 1);
+                    w = dw;
+                }
+                if (areaY != null) plane = areaY.scatter(plane, w, 1, w, 1, w);
+                for (int i = 0; i < dst.length; i++) {
+                    float v = plane[i] + 0.5f;
+                    if (v < 0f) v = 0f;
+                    if (v > 255f) v = 255f;
+                    dst[i] |= (int) v << shift;
+                }
+            }
+            return dst;
+        }
+
+        private static int clamp(long v) {
+            return v < 0 ? 0 : v > 255 ? 255 : (int) v;
+        }
+
+        // Taps and fixed-point weights (summing to 1 << WEIGHT_BITS) for one axis
+        private static final class Axis {
+            final int taps;
+            final int[] index;
+            final int[] weight;
+
+            Axis(int srcLen, int dstLen) {
+                double scale = (double) srcLen / dstLen;
+                double radius = Math.max(1.0, scale);
+                taps = (int) Math.ceil(2 * radius) + 1;
+                index = new int[dstLen * taps];
+                weight = new int[dstLen * taps];
+                double[] w = new double[taps];
+                for (int i = 0; i < dstLen; i++) {
+                    // Pixel-centre aligned position in the source
+                    double pos = (i + 0.5) * scale - 0.5;
+                    if (scale <= 1) pos = Math.max(0, Math.min(srcLen - 1, pos));
+                    int first = (int) Math.ceil(pos - radius);
+                    double sum = 0;
+                    for (int t = 0; t < taps; t++) {
+                        w[t] = Math.max(0, 1 - Math.abs(first + t - pos) / radius);
+                        sum += w[t];
+                    }
+                    int k = i * taps;
+                    int assigned = 0;
+                    int largest = k;
+                    for (int t = 0; t < taps; t++) {
+                        index[k + t] = Math.max(0, Math.min(srcLen - 1, first + t));
+                        weight[k + t] = (int) Math.round(w[t] / sum * (1 << WEIGHT_BITS));
+                        assigned += weight[k + t];
+                        if (weight[k + t] > weight[largest]) largest = k + t;
+                    }
+                    // Rounding leftovers go to the heaviest tap so weights sum exactly
+                    weight[largest] += (1 << WEIGHT_BITS) - assigned;
+                }
+            }
+        }
+
+        // Source range and (output index, weight) per source pixel, as built by
+        // ImageJ's DownsizeTable for its box kernel
+        private static final class AreaAxis {
+            final int srcLen;
+            final int dstLen;
+            final int srcStart;
+            final int srcEnd;
+            final int[] index;
+            final float[] weight;
+
+            AreaAxis(int srcLen, int dstLen) {
+                this.srcLen = srcLen;
+                this.dstLen = dstLen;
+                double scale = (double) srcLen / dstLen;
+                int start = (int) Math.ceil(1e-8 + srcIndex(-0.5, scale));
+                int end = (int) Math.floor(1e-8 + srcIndex(dstLen - 1 + 0.5, scale));
+                srcStart = Math.max(0, start);
+                srcEnd = Math.min(srcLen - 1, end);
+                int len = srcEnd - srcStart + 1;
+                index = new int[len];
+                weight = new float[len];
+                Arrays.fill(index, -1);
+                for (int d = 0; d < dstLen; d++) {
+                    double sum = 0;
+                    int lo = (int) Math.ceil(1e-8 + srcIndex(d - 0.5, scale));
+                    int hi = (int) Math.floor(-1e-8 + srcIndex(d + 0.5, scale));
+                    for (int s = lo; s <= hi; s++) {
+                        int p = Math.max(0, Math.min(srcLen - 1, s)) - srcStart;
+                        while (index[p] != -1 && index[p] != d) p++;
+                        index[p] = d;
+                        sum += 1f;
+                        weight[p] += 1f;
+                    }
+                    for (int p = Math.max(0, lo - srcStart); p <= Math.min(len - 1, hi - srcStart); p++) {
+                        if (index[p] == d) weight[p] = (float) (weight[p] / sum);
+                    }
+                }
+                for (int p = 0; p < len; p++) {
+                    if (index[p] == -1) index[p] = 0;
+                }
+            }
+
+            private static double srcIndex(double dst, double scale) {
+                return -0.5 + (dst + 0.5) * scale;
+            }
+
+            // Shrinks every line of a plane along this axis
+            float[] scatter(float[] src, int lines, int srcLineInc, int srcPointInc,
+                            int dstLineInc, int dstPointInc) {
+                float[] dst = new float[lines * dstLen];
+                for (int line = 0; line < lines; line++) {
+                    int pos = line * srcLineInc + srcStart * srcPointInc;
+                    int out = line * dstLineInc;
+                    for (int p = 0; p <= srcEnd - srcStart; p++) {
+                        dst[out + index[p] * dstPointInc] += src[pos] * weight[p];
+                        pos += srcPointInc;
+                    }
+                }
+                return dst;
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package insta_montage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams an RGB image into a tiled, multi-resolution BigTIFF.
+ *
+ * Rows are pushed top to bottom. Once a row of 256-pixel tiles is complete
+ * it is written out, and every pair of rows is averaged down into the next
+ * level, so the pyramid is built in one pass while only one tile row per
+ * level is held in memory. Level 0 is the first page; each further page is
+ * half the size and marked as a reduced-resolution image, the layout that
+ * pyramid-aware viewers (QuPath, libvips, OpenSlide's generic TIFF) read.
+ *
+ * Directories are written by {@link #close()} only once every row has been
+ * pushed. A writer that is aborted, or closed early, deletes its file
+ * instead of leaving a truncated pyramid behind.
+ */
+public class PyramidTiffWriter implements Closeable {
+
+    public static final int TILE = 256;
+
+    private static final int SHORT = 3;
+    private static final int LONG = 4;
+    private static final int LONG8 = 16;
+
+    private static final int ENTRIES = 13;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel ch;
+    private final List<Level> levels = new ArrayList<>();
+    private int rowsPushed;
+    private boolean closed;
+
+    public PyramidTiffWriter(File file, int width, int height) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        ch = raf.getChannel();
+
+        // BigTIFF header; the first IFD offset is patched in on close
+        ByteBuffer header = buffer(16);
+        header.put((byte) 'I').put((byte) 'I').putShort((short) 43).putShort((short) 8).putShort((short) 0);
+        header.putLong(0).flip();
+        ch.write(header, 0);
+
+        // Halve until the whole level fits in one tile
+        Level prev = null;
+        int w = width;
+        int h = height;
+        while (true) {
+            Level level = new Level(w, h);
+            if (prev != null) prev.next = level;
+            levels.add(level);
+            prev = level;
+            if (w <= TILE && h <= TILE) break;
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+        }
+    }
+
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /** Appends {@code rows} full-width rows of packed RGB pixels. */
+    public void writeRows(int[] pixels, int offset, int rows) throws IOException {
+        Level top = levels.get(0);
+        for (int r = 0; r < rows; r++) {
+            top.push(pixels, offset + r * top.width);
+        }
+        rowsPushed += rows;
+    }
+
+    /**
+     * Flushes partial tile rows and writes the directories, or deletes the
+     * file and throws if not every row was pushed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        int height = levels.get(0).height;
+        if (rowsPushed < height) {
+            abort();
+            throw new IOException("pyramid incomplete: " + rowsPushed + " of " + height + " rows written");
+        }
+        closed = true;
+        try {
+            levels.get(0).finish();
+            long first = 0;
+            long prevNextPointer = -1;
+            for (int i = 0; i < levels.size(); i++) {
+                long ifd = writeIFD(levels.get(i), i > 0);
+                if (prevNextPointer < 0) {
+                    first = ifd;
+                } else {
+                    ByteBuffer b = buffer(8);
+                    b.putLong(ifd).flip();
+                    ch.write(b, prevNextPointer);
+                }
+                prevNextPointer = ifd + 8 + ENTRIES * 20L;
+            }
+            ByteBuffer b = buffer(8);
+            b.putLong(first).flip();
+            ch.write(b, 8);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Closes the file without writing directories and deletes it. */
+    public void abort() {
+        if (closed) return;
+        closed = true;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // Deleting anyway
+        }
+        file.delete();
+    }
+
+    // One IFD per level; tile offsets and counts are stored out of line
+    private long writeIFD(Level level, boolean reduced) throws IOException {
+        int n = level.offsets.size();
+        long arrays = ch.size();
+        ByteBuffer data = buffer(n * 16);
+        for (long offset : level.offsets) data.putLong(offset);
+        for (int i = 0; i < n; i++) data.putLong((long) TILE * TILE * 3);
+        data.flip();
+        ch.write(data, arrays);
+
+        long ifd = ch.size();
+        ByteBuffer b = buffer(8 + ENTRIES * 20 + 8);
+        b.putLong(ENTRIES);
+        entry(b, 254, LONG, 1, reduced ? 1 : 0);           // NewSubfileType
+        entry(b, 256, LONG, 1, level.width);               // ImageWidth
+        entry(b, 257, LONG, 1, level.height);              // ImageLength
+        b.putShort((short) 258).putShort((short) SHORT).putLong(3)   // BitsPerSample 8,8,8
+         .putShort((short) 8).putShort((short) 8).putShort((short) 8).putShort((short) 0);
+        entry(b, 259, SHORT, 1, 1);                        // Compression: none
+        entry(b, 262, SHORT, 1, 2);                        // Photometric: RGB
+        entry(b, 277, SHORT, 1, 3);                        // SamplesPerPixel
+        entry(b, 284, SHORT, 1, 1);                        // PlanarConfiguration: chunky
+        entry(b, 322, LONG, 1, TILE);                      // TileWidth
+        entry(b, 323, LONG, 1, TILE);                      // TileLength
+        entry(b, 324, LONG8, n, n == 1 ? level.offsets.get(0) : arrays);   // TileOffsets
+        entry(b, 325, LONG8, n, n == 1 ? (long) TILE * TILE * 3 : arrays + n * 8L); // TileByteCounts
+        entry(b, 339, SHORT, 1, 1);                        // SampleFormat: unsigned
+        b.putLong(0).flip();
+        ch.write(b, ifd);
+        return ifd;
+    }
+
+    private static void entry(ByteBuffer b, int tag, int type, long count, long value) {
+        b.putShort((short) tag).putShort((short) type).putLong(count);
+        if (type == SHORT) {
+            b.putShort((short) value).putShort((short) 0).putInt(0);
+        } else if (type == LONG) {
+            b.putInt((int) value).putInt(0);
+        } else {
+            b.putLong(value);
+        }
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // --- One resolution level: a buffered tile row and the pending row to downsample ---
+    private class Level {
+        final int width;
+        final int height;
+        final int tilesAcross;
+        final int[] band;
+        final List<Long> offsets = new ArrayList<>();
+        int bandRows;
+        int rowsDone;
+        int[] carry;
+        Level next;
+
+        Level(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.tilesAcross = (width + TILE - 1) / TILE;
+            this.band = new int[width * TILE];
+        }
+
+        void push(int[] src, int offset) throws IOException {
+            if (rowsDone >= height) return;
+            System.arraycopy(src, offset, band, bandRows * width, width);
+            bandRows++;
+            rowsDone++;
+            if (bandRows == TILE || rowsDone == height) flushBand();
+
+            if (next != null) {
+                if (carry == null) {
+                    carry = new int[width];
+                    System.arraycopy(src, offset, carry, 0, width);
+                } else {
+                    next.push(downsample(carry, src, offset), 0);
+                    carry = null;
+                }
+            }
+        }
+
+        // Odd last row is averaged with itself; then the next level finishes
+        void finish() throws IOException {
+            if (next == null) return;
+            if (carry != null) {
+                next.push(downsample(carry, carry, 0), 0);
+                carry = null;
+            }
+            next.finish();
+        }
+
+        private int[] downsample(int[] a, int[] b, int offset) {
+            int[] out = new int[next.width];
+            for (int x = 0; x < next.width; x++) {
+                int x0 = 2 * x;
+                int x1 = Math.min(x0 + 1, width - 1);
+                int p = a[x0], q = a[x1], u = b[offset + x0], v = b[offset + x1];
+                int r = (((p >> 16) & 0xff) + ((q >> 16) & 0xff) + ((u >> 16) & 0xff) + ((v >> 16) & 0xff) + 2) >> 2;
+                int g = (((p >> 8) & 0xff) + ((q >> 8) & 0xff) + ((u >> 8) & 0xff) + ((v >> 8) & 0xff) + 2) >> 2;
+                int bl = ((p & 0xff) + (q & 0xff) + (u & 0xff) + (v & 0xff) + 2) >> 2;
+                out[x] = (r << 16) | (g << 8) | bl;
+            }
+            return out;
+        }
+
+        // Writes the buffered rows as one row of tiles, zero-padded at the edges
+        private void flushBand() throws IOException {
+            ByteBuffer tile = ByteBuffer.allocate(TILE * TILE * 3);
+            for (int t = 0; t < tilesAcross; t++) {
+                tile.clear();
+                int x0 = t * TILE;
+                int w = Math.min(TILE, width - x0);
+                if (w < TILE || bandRows < TILE) Arrays.fill(tile.array(), (byte) 0);
+                for (int y = 0; y < TILE; y++) {
+                    if (y < bandRows) {
+                        int row = y * width + x0;
+                        for (int x = 0; x < w; x++) {
+                            int c = band[row + x];
+                            tile.put((byte) (c >> 16)).put((byte) (c >> 8)).put((byte) c);
+                        }
+                    }
+                    tile.position((y + 1) * TILE * 3);
+                }
+                tile.flip();
+                long pos = ch.size();
+                while (tile.hasRemaining()) pos += ch.write(tile, pos);
+                offsets.add(pos - (long) TILE * TILE * 3);
+            }
+            bandRows = 0;
+        }
+    }
+}
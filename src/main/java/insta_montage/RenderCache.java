@@ -0,0 +1,348 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Disk-backed cache of rendered montages and prepared tiles.
+ *
+ * Entries are raw RGB rasters named by a digest of everything that affects
+ * the output: each in-memory source's pixel hash (displayed plane, LUTs,
+ * display ranges, overlay) or each on-disk source's file path and
+ * modification time, its title and calibration, plus the canonical
+ * MontageSettings string. Hits are read back through a memory-mapped file.
+ * With write-behind on, entries are copied and written by a background
+ * thread, and are served from memory until they are on disk. Least recently used entries are evicted once
+ * the cache grows past its size cap. Entry sizes and use order are kept in
+ * memory; the directory is only listed on first use and when the running
+ * total passes the cap (other processes may share the directory).
+ */
+public class RenderCache {
+
+    private static final int MAGIC = 0x494d5243; // "IMRC"
+    private static final int HEADER_BYTES = 12;
+
+    private static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+    private static RenderCache defaultCache;
+
+    private final File dir;
+    private final long maxBytes;
+    // Entry file name -> size, least recently used first; null until scanned
+    private LinkedHashMap<String, Long> entries;
+    private long totalBytes;
+    private int hits;
+    private int misses;
+
+    // Write-behind: a single writer thread, and entries not yet on disk
+    private ExecutorService writer;
+    private final Map<String, ColorProcessor> queued = new HashMap<>();
+
+    public RenderCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Shared cache in ~/.insta_montage/render-cache, capped by -Dinsta_montage.cacheMB. */
+    public static synchronized RenderCache getDefault() {
+        if (defaultCache == null) {
+            File dir = new File(System.getProperty("user.home"), ".insta_montage/render-cache");
+            long maxBytes = DEFAULT_MAX_BYTES;
+            String mb = System.getProperty("insta_montage.cacheMB");
+            if (mb != null) {
+                try {
+                    maxBytes = Long.parseLong(mb.trim()) * 1024 * 1024;
+                } catch (NumberFormatException e) {
+                    // Keep the default
+                }
+            }
+            defaultCache = new RenderCache(dir, maxBytes);
+            // Its users (the dialog, the watch folder) must not wait for the disk
+            defaultCache.setWriteBehind(true);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Makes put() return at once: entries are copied and written by a
+     * background thread, in order.
+     */
+    public synchronized void setWriteBehind(boolean on) {
+        if (on && writer == null) {
+            writer = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "Insta Montage cache writer");
+                t.setDaemon(true);
+                return t;
+            });
+        } else if (!on && writer != null) {
+            writer.shutdown();
+            writer = null;
+        }
+    }
+
+    /** Waits until every queued entry has been written. */
+    public void flush() throws InterruptedException {
+        ExecutorService w;
+        synchronized (this) {
+            w = writer;
+        }
+        if (w == null) return;
+        try {
+            w.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            // The no-op cannot fail
+        }
+    }
+
+    /** Returns the cached raster for {@code key}, or null on a miss. */
+    public synchronized ColorProcessor get(String key) {
+        ColorProcessor pending = queued.get(key);
+        if (pending != null) {
+            hits++;
+            return (ColorProcessor) pending.duplicate();
+        }
+        File f = fileFor(key);
+        if (!f.isFile()) {
+            forget(f);
+            misses++;
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r");
+             FileChannel ch = raf.getChannel()) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC) throw new IOException("bad header");
+            int w = buf.getInt();
+            int h = buf.getInt();
+            if ((long) w * h * 4 + HEADER_BYTES != ch.size()) throw new IOException("truncated");
+            int[] pixels = new int[w * h];
+            IntBuffer ib = buf.asIntBuffer();
+            ib.get(pixels);
+            // Touch for LRU ordering, here and for the next scan
+            f.setLastModified(System.currentTimeMillis());
+            index().get(f.getName());
+            hits++;
+            return new ColorProcessor(w, h, pixels);
+        } catch (IOException e) {
+            f.delete();
+            forget(f);
+            misses++;
+            return null;
+        }
+    }
+
+    /** Stores {@code cp} under {@code key}, then evicts old entries if over the cap. */
+    public void put(String key, ColorProcessor cp) {
+        if ((long) cp.getWidth() * cp.getHeight() * 4 + HEADER_BYTES > maxBytes) return;
+        synchronized (this) {
+            if (writer != null) {
+                // A copy, so the caller may go on drawing on cp
+                ColorProcessor copy = new ColorProcessor(cp.getWidth(), cp.getHeight(),
+                    ((int[]) cp.getPixels()).clone());
+                queued.put(key, copy);
+                writer.execute(() -> {
+                    store(key, copy);
+                    synchronized (this) {
+                        queued.remove(key, copy);
+                    }
+                });
+                return;
+            }
+        }
+        store(key, cp);
+    }
+
+    // Writes one entry to a temporary file and moves it into place; only the
+    // index update holds the lock, so reads are not blocked by the write
+    private void store(String key, ColorProcessor cp) {
+        int w = cp.getWidth();
+        int h = cp.getHeight();
+        long size = (long) w * h * 4 + HEADER_BYTES;
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+
+        File target = fileFor(key);
+        File tmp;
+        try {
+            tmp = File.createTempFile(target.getName(), ".tmp", dir);
+        } catch (IOException e) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel ch = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(w).putInt(h).flip();
+            ch.write(header);
+            ByteBuffer body = ByteBuffer.allocate(w * 4 * Math.min(h, 256));
+            int[] pixels = (int[]) cp.getPixels();
+            for (int row = 0; row < h; row += 256) {
+                int rowsNow = Math.min(256, h - row);
+                body.clear();
+                body.asIntBuffer().put(pixels, row * w, rowsNow * w);
+                body.limit(rowsNow * w * 4);
+                while (body.hasRemaining()) ch.write(body);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        synchronized (this) {
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                tmp.delete();
+                return;
+            }
+            Long old = index().put(target.getName(), size);
+            totalBytes += size - (old == null ? 0 : old);
+            if (totalBytes > maxBytes) evict();
+        }
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    // Entry index, read from the directory on first use
+    private LinkedHashMap<String, Long> index() {
+        if (entries == null) scan();
+        return entries;
+    }
+
+    /**
+     * Re-reads the directory. Entries this instance does not know about
+     * (left by an earlier session or written by another process) come first,
+     * oldest modification time first; known entries keep their use order.
+     */
+    private void scan() {
+        LinkedHashMap<String, Long> known = entries != null ? entries : new LinkedHashMap<>();
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        totalBytes = 0;
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".rgb"));
+        if (files == null) return;
+        Map<String, Long> onDisk = new LinkedHashMap<>();
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+        for (int i : order) onDisk.put(files[i].getName(), files[i].length());
+
+        for (Map.Entry<String, Long> e : onDisk.entrySet()) {
+            if (!known.containsKey(e.getKey())) entries.put(e.getKey(), e.getValue());
+        }
+        for (String name : known.keySet()) {
+            Long len = onDisk.get(name);
+            if (len != null) entries.put(name, len);
+        }
+        for (long len : entries.values()) totalBytes += len;
+    }
+
+    private void forget(File f) {
+        if (entries == null) return;
+        Long len = entries.remove(f.getName());
+        if (len != null) totalBytes -= len;
+    }
+
+    // Deletes least recently used entries until the cache fits under the cap
+    private void evict() {
+        // Pick up changes made by other processes before choosing what to delete
+        scan();
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            File f = new File(dir, entry.getKey());
+            if (f.delete() || !f.exists()) {
+                totalBytes -= entry.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(dir, digest(key) + ".rgb");
+    }
+
+    // --- Keys ---
+
+    /** Key for a whole montage of {@code images} rendered with {@code settings}. */
+    public static String montageKey(ImagePlus[] images, MontageSettings settings) {
+        StringBuilder sb = new StringBuilder("montage\n");
+        sb.append(settings.toCanonicalString());
+        for (ImagePlus imp : images) sb.append(sourceKey(imp)).append('\n');
+        return sb.toString();
+    }
+
+    /** Key for a montage of on-disk sources, computed without decoding them. */
+    public static String montageKey(LazySource[] sources, MontageSettings settings) {
+        StringBuilder sb = new StringBuilder("montage\n");
+        sb.append(settings.toCanonicalString());
+        for (LazySource source : sources) sb.append(source.cacheKey()).append('\n');
+        return sb.toString();
+    }
+
+    /** Key for one source prepared as a tile of the given size. */
+    public static String tileKey(ImagePlus imp, int tileW, int tileH) {
+        return tileKey(PixelHash.of(imp), imp, tileW, tileH);
+    }
+
+    /** Like {@link #tileKey(ImagePlus, int, int)}, with {@code PixelHash.of(imp)} already known. */
+    public static String tileKey(long hash, ImagePlus imp, int tileW, int tileH) {
+        return "tile " + tileW + "x" + tileH + "\n" + sourceKey(hash, imp);
+    }
+
+    /**
+     * Identifies what an in-memory source contributes to a render: its pixel
+     * hash (displayed plane, LUTs, display ranges, overlay), title and
+     * calibration. Pixels are always hashed, because plugins and macros can
+     * change them without setting the image's changes flag; on-disk sources
+     * that were never loaded are keyed by {@link LazySource#cacheKey()}.
+     */
+    static String sourceKey(ImagePlus imp) {
+        return sourceKey(PixelHash.of(imp), imp);
+    }
+
+    private static String sourceKey(long hash, ImagePlus imp) {
+        return "pixels:" + Long.toHexString(hash)
+            + " title:" + imp.getTitle()
+            + " cal:" + imp.getCalibration().pixelWidth + imp.getCalibration().getUnit();
+    }
+
+    private static String digest(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] d = md.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : d) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package insta_montage;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+
+/**
+ * Everything about a montage layout that does not depend on pixel data,
+ * worked out once from MontageSettings, the number of tiles and the size
+ * of the first source: grid, tile and canvas size, the corner of every
+ * tile, label and scale-bar anchors and fonts, the inset outline style, and
+ * the resampling weights from source size to tile size.
+ *
+ * Plans are immutable and can be reused for any montage with the same
+ * settings, tile count and source size (see {@link #fits}).
+ */
+public final class RenderPlan {
+
+    /** Tile corner a label or scale bar is anchored to. */
+    public enum Corner {
+        TOP_LEFT, TOP_RIGHT, BOTTOM_LEFT, BOTTOM_RIGHT;
+
+        /** Parses the dialog's position names ("Top Left", ...). */
+        public static Corner parse(String position, Corner fallback) {
+            if (position == null) return fallback;
+            switch (position) {
+                case "Top Left": return TOP_LEFT;
+                case "Top Right": return TOP_RIGHT;
+                case "Bottom Left": return BOTTOM_LEFT;
+                case "Bottom Right": return BOTTOM_RIGHT;
+                default: return fallback;
+            }
+        }
+
+        public boolean isTop() {
+            return this == TOP_LEFT || this == TOP_RIGHT;
+        }
+
+        public boolean isRight() {
+            return this == TOP_RIGHT || this == BOTTOM_RIGHT;
+        }
+    }
+
+    final String settingsKey;
+    final int tileCount;
+    final int sourceW;
+    final int sourceH;
+
+    // Grid and canvas
+    final int rows;
+    final int cols;
+    final int tileW;
+    final int tileH;
+    final int border;
+    final int canvasW;
+    final int canvasH;
+    final int background;
+    private final int[] tileX;
+    private final int[] tileY;
+
+    // Labels
+    final boolean showLabels;
+    final Corner labelCorner;
+    final Font labelFont;
+    final int labelPadding;
+    final int labelDy; // baseline offset from the tile top
+
+    // Scale bar
+    final boolean showScaleBar;
+    final int scaleBarImage; // index among the input images; inset tiles are not counted
+    final Corner scaleBarCorner;
+    final double scaleBarLength;
+    final Color scaleBarColor;
+    final Font scaleBarFont;
+    final int barHeight;
+    final int barPadding;
+    final int barDy; // bar top offset from the tile top
+
+    // ROI insets
+    final boolean insetOutline;
+    final int outlineColor;
+    final int outlineWidth;
+
+    // Source size to tile size; null when no resampling is needed or ImageJ
+    // should do it. Tiles have always been resized by ImageJ without
+    // interpolation, so this reproduces that output exactly.
+    final PixelKernels.Resampler resampler;
+
+    private RenderPlan(MontageSettings s, int tileCount, int sourceW, int sourceH) {
+        this.settingsKey = s.toCanonicalString();
+        this.tileCount = tileCount;
+        this.sourceW = sourceW;
+        this.sourceH = sourceH;
+
+        // Auto-expand grid if needed
+        int r = s.rows;
+        int c = s.cols;
+        while (r * c < tileCount) {
+            c++;
+        }
+        rows = r;
+        cols = c;
+        border = s.borderThickness;
+        background = s.borderColor.getRGB();
+
+        // Scale images down if that mode is selected
+        int w = sourceW;
+        int h = sourceH;
+        if (!s.expandCanvas) {
+            w = Math.max(1, w - border);
+            h = Math.max(1, h - border);
+        }
+        tileW = w;
+        tileH = h;
+
+        // Total canvas size — border only between tiles, not on outer edges
+        canvasW = cols * tileW + (cols - 1) * border;
+        canvasH = rows * tileH + (rows - 1) * border;
+
+        tileX = new int[tileCount];
+        tileY = new int[tileCount];
+        for (int i = 0; i < tileCount; i++) {
+            tileX[i] = (i % cols) * (tileW + border);
+            tileY[i] = (i / cols) * (tileH + border);
+        }
+
+        showLabels = s.showLabels;
+        labelCorner = Corner.parse(s.labelPosition, Corner.TOP_LEFT);
+        int labelSize = Math.max(10, tileH / 20);
+        labelFont = new Font("SansSerif", Font.BOLD, labelSize);
+        labelPadding = labelSize / 2;
+        labelDy = labelCorner.isTop() ? labelPadding + labelSize : tileH - labelPadding;
+
+        showScaleBar = s.showScaleBar;
+        scaleBarImage = s.scaleBarImageIndex;
+        scaleBarCorner = Corner.parse(s.scaleBarPosition, Corner.BOTTOM_RIGHT);
+        scaleBarLength = s.scaleBarLength;
+        scaleBarColor = s.scaleBarColor;
+        scaleBarFont = new Font("SansSerif", Font.PLAIN, Math.max(8, tileH / 25));
+        barHeight = Math.max(3, tileH / 40);
+        barPadding = tileH / 20;
+        barDy = scaleBarCorner.isTop() ? barPadding : tileH - barHeight - barPadding;
+
+        insetOutline = s.insetOutline;
+        outlineColor = s.insetOutlineColor.getRGB();
+        outlineWidth = Math.max(1, Math.min(tileW, tileH) / 200);
+
+        resampler = PixelKernels.Resampler.forImageJResize(sourceW, sourceH, tileW, tileH);
+    }
+
+    /** Lays out {@code tileCount} tiles whose first source is sourceW x sourceH. */
+    public static RenderPlan compile(MontageSettings settings, int tileCount, int sourceW, int sourceH) {
+        if (tileCount < 1) throw new IllegalArgumentException("a montage needs at least one tile");
+        return new RenderPlan(settings, tileCount, sourceW, sourceH);
+    }
+
+    /** True if this plan lays out the given montage exactly as a fresh compile would. */
+    public boolean fits(MontageSettings settings, int tileCount, int sourceW, int sourceH) {
+        return this.tileCount == tileCount && this.sourceW == sourceW && this.sourceH == sourceH
+            && settingsKey.equals(settings.toCanonicalString());
+    }
+
+    public int getCanvasWidth() {
+        return canvasW;
+    }
+
+    public int getCanvasHeight() {
+        return canvasH;
+    }
+
+    int tileX(int i) {
+        return tileX[i];
+    }
+
+    int tileY(int i) {
+        return tileY[i];
+    }
+
+    /** Label x for a label {@code textW} wide on a tile at tileX, kept inside the tile. */
+    int labelX(int tileX, int textW) {
+        int x = labelCorner.isRight() ? tileX + tileW - textW - labelPadding : tileX + labelPadding;
+        if (x < tileX) x = tileX;
+        if (x + textW > tileX + tileW) x = tileX + tileW - textW;
+        return x;
+    }
+
+    /** Scale bar length in pixels for a source with the given pixel size. */
+    int barLength(double pixelSize) {
+        if (pixelSize <= 0) pixelSize = 1.0;
+        int len = (int) Math.round(scaleBarLength / pixelSize);
+        if (len < 1) len = 1;
+        if (len > tileW / 2) len = tileW / 2;
+        return len;
+    }
+
+    int barX(int tileX, int barLength) {
+        return scaleBarCorner.isRight() ? tileX + tileW - barLength - barPadding : tileX + barPadding;
+    }
+
+    /**
+     * Source region shown by an inset of an ROI with the given bounds: the
+     * bounds grown about their centre to the tile's aspect ratio, so the
+     * magnification is the same in x and y, and kept inside the image.
+     */
+    Rectangle insetRegion(Rectangle roi, int imageW, int imageH) {
+        int w = roi.width;
+        int h = roi.height;
+        if ((long) w * tileH > (long) h * tileW) {
+            h = (int) Math.round((double) w * tileH / tileW);
+        } else {
+            w = (int) Math.round((double) h * tileW / tileH);
+        }
+        w = Math.max(1, Math.min(w, imageW));
+        h = Math.max(1, Math.min(h, imageH));
+        int x = roi.x + roi.width / 2 - w / 2;
+        int y = roi.y + roi.height / 2 - h / 2;
+        x = Math.max(0, Math.min(x, imageW - w));
+        y = Math.max(0, Math.min(y, imageH - h));
+        return new Rectangle(x, y, w, h);
+    }
+}
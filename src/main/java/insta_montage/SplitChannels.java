@@ -0,0 +1,130 @@
+package insta_montage;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+
+import java.awt.Color;
+
+/**
+ * One multichannel image as a row of tiles: every channel on its own, in
+ * its LUT colour or in gray, followed by the merge.
+ *
+ * The displayed Z/T plane of each channel is read once. Every value goes
+ * through the channel's LUT into the channel tile and is added into the
+ * merge in the same pass, so no split-off images or flattened copies are
+ * made. The merge holds the active channels of a composite-mode image, and
+ * all channels otherwise.
+ */
+public class SplitChannels {
+
+    public static final String MERGE_LABEL = "Merge";
+
+    private SplitChannels() {
+    }
+
+    public static boolean canSplit(ImagePlus imp) {
+        return imp.getNChannels() > 1 && imp.getBitDepth() != 24;
+    }
+
+    /** Tiles for channels 1..n of the displayed plane, then the merge. */
+    public static ColorProcessor[] render(ImagePlus imp, boolean grayscale) {
+        if (!canSplit(imp)) throw new IllegalArgumentException(imp.getTitle() + " has no channels to split");
+        int n = imp.getNChannels();
+        int w = imp.getWidth();
+        int h = imp.getHeight();
+        int bitDepth = imp.getBitDepth();
+        ImageStack stack = imp.getStack();
+        boolean[] merged = mergedChannels(imp);
+        boolean additive = isAdditive(imp);
+        LUT gray = LUT.createLutFromColor(Color.WHITE);
+
+        int[][] channels = new int[n][];
+        int[] merge = new int[w * h];
+        if (bitDepth == 8 || bitDepth == 16) {
+            Object[] planes = new Object[n];
+            int[][] tables = new int[n][];
+            int[][] mergeTables = new int[n][];
+            for (int c = 0; c < n; c++) {
+                LUT lut = LazySource.channelLut(imp, c + 1);
+                double min = LazySource.displayMin(imp, c + 1);
+                double max = LazySource.displayMax(imp, c + 1);
+                int[] colour = PixelKernels.rgbTable(bitDepth, lut, min, max);
+                tables[c] = grayscale ? PixelKernels.rgbTable(bitDepth, gray, min, max) : colour;
+                mergeTables[c] = additive && merged[c] ? colour : null;
+                planes[c] = stack.getPixels(imp.getStackIndex(c + 1, imp.getZ(), imp.getT()));
+                channels[c] = new int[w * h];
+            }
+            PixelKernels.splitBlend(planes, tables, mergeTables, channels, merge);
+        } else {
+            // Float channels go through ImageJ's own display conversion
+            long[] acc = new long[w * h];
+            for (int c = 0; c < n; c++) {
+                ImageProcessor ip = stack.getProcessor(imp.getStackIndex(c + 1, imp.getZ(), imp.getT()));
+                double min = LazySource.displayMin(imp, c + 1);
+                double max = LazySource.displayMax(imp, c + 1);
+                int[] colour = toRGB(ip, LazySource.channelLut(imp, c + 1), min, max);
+                channels[c] = grayscale ? toRGB(ip, gray, min, max) : colour;
+                if (additive && merged[c]) {
+                    for (int i = 0; i < acc.length; i++) {
+                        int v = colour[i];
+                        acc[i] += ((long) (v >> 16 & 0xff) << 32) | ((v >> 8 & 0xff) << 16) | (v & 0xff);
+                    }
+                }
+            }
+            for (int i = 0; i < acc.length; i++) {
+                long a = acc[i];
+                merge[i] = 0xff000000 | (int) Math.min(255, a >>> 32) << 16
+                    | (int) Math.min(255, a >>> 16 & 0xffff) << 8 | (int) Math.min(255, a & 0xffff);
+            }
+        }
+        // Max/min/invert composite projections are left to ImageJ
+        if (!additive) merge = (int[]) imp.flatten().getProcessor().getPixels();
+
+        ColorProcessor[] tiles = new ColorProcessor[n + 1];
+        for (int c = 0; c < n; c++) tiles[c] = new ColorProcessor(w, h, channels[c]);
+        tiles[n] = new ColorProcessor(w, h, merge);
+        return tiles;
+    }
+
+    /** Channel names (short slice labels, or C1, C2, ...), then {@link #MERGE_LABEL}. */
+    public static String[] labels(ImagePlus imp) {
+        int n = imp.getNChannels();
+        ImageStack stack = imp.getStack();
+        String[] labels = new String[n + 1];
+        for (int c = 1; c <= n; c++) {
+            String label = stack.getShortSliceLabel(imp.getStackIndex(c, imp.getZ(), imp.getT()));
+            labels[c - 1] = label == null || label.trim().isEmpty() ? "C" + c : label.trim();
+        }
+        labels[n] = MERGE_LABEL;
+        return labels;
+    }
+
+    // Active channels of a composite-mode image; every channel in the other modes
+    private static boolean[] mergedChannels(ImagePlus imp) {
+        boolean[] merged = new boolean[imp.getNChannels()];
+        boolean[] active = imp.isComposite() && ((CompositeImage) imp).getMode() == CompositeImage.COMPOSITE
+            ? ((CompositeImage) imp).getActiveChannels() : null;
+        for (int c = 0; c < merged.length; c++) {
+            merged[c] = active == null || c >= active.length || active[c];
+        }
+        return merged;
+    }
+
+    // True unless a composite-mode image is shown with a non-sum projection
+    private static boolean isAdditive(ImagePlus imp) {
+        if (!imp.isComposite() || ((CompositeImage) imp).getMode() != CompositeImage.COMPOSITE) return true;
+        String projection = imp.getProp("CompositeProjection");
+        return projection == null || projection.equalsIgnoreCase("Sum")
+            || projection.equalsIgnoreCase("composite sum");
+    }
+
+    private static int[] toRGB(ImageProcessor ip, LUT lut, double min, double max) {
+        ip.setLut((LUT) lut.clone());
+        ip.setMinAndMax(min, max);
+        return (int[]) ip.convertToRGB().getPixels();
+    }
+}
@@ -1,6 +1,8 @@
 package insta_montage;
 
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 
 import javax.swing.*;
@@ -10,8 +12,12 @@ import org.w3c.dom.events.MouseEvent;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ThumbnailPanel extends JPanel {
 
@@ -22,6 +28,11 @@ public class ThumbnailPanel extends JPanel {
 
     private List<ImagePlus> images;
     private List<BufferedImage> thumbnails;
+
+    // Thumbnails by image ID, with the pixels and PixelHash they were drawn from
+    private final Map<Integer, Thumb> thumbCache = new HashMap<>();
+    // Image IDs in the user's order, kept while the images themselves are released
+    private List<Integer> order = new ArrayList<>();
     private int dragSourceIndex = -1;
     private int dropTargetIndex = -1;
     private Runnable onOrderChanged;
@@ -45,21 +56,92 @@ public class ThumbnailPanel extends JPanel {
     public void setImages(List<ImagePlus> images) {
         this.images = new ArrayList<>(images);
         this.thumbnails = new ArrayList<>();
+        Map<Integer, Thumb> kept = new HashMap<>();
         for (ImagePlus imp : images) {
-            thumbnails.add(toBufferedImage(imp));
+            // Same pixel arrays and sparse signature: unchanged, without a full hash
+            Object[] planes = displayedPlanes(imp);
+            long sparse = PixelHash.sparse(imp);
+            Thumb thumb = thumbCache.get(imp.getID());
+            if (thumb == null || !thumb.matches(planes, sparse)) {
+                // Only images whose rendering changed get a new thumbnail
+                long hash = PixelHash.of(imp);
+                BufferedImage image = thumb != null && thumb.hash == hash ? thumb.image : toBufferedImage(imp);
+                thumb = new Thumb(planes, sparse, hash, image);
+            }
+            kept.put(imp.getID(), thumb);
+            thumbnails.add(thumb.image);
         }
+        // Thumbnails of closed images are dropped
+        thumbCache.clear();
+        thumbCache.putAll(kept);
+        order = ids(this.images);
         repaint();
     }
 
+    /**
+     * Shows {@code open} in the current order: images already listed keep
+     * their place, new ones are appended, closed ones are removed.
+     */
+    public void reconcile(List<ImagePlus> open) {
+        Map<Integer, ImagePlus> byId = new LinkedHashMap<>();
+        for (ImagePlus imp : open) byId.put(imp.getID(), imp);
+        List<ImagePlus> ordered = new ArrayList<>();
+        for (int id : order) {
+            ImagePlus imp = byId.remove(id);
+            if (imp != null) ordered.add(imp);
+        }
+        ordered.addAll(byId.values());
+        setImages(ordered);
+    }
+
+    /**
+     * Lets go of the images (so closing them frees their pixels) while
+     * keeping their order and thumbnails for the next {@link #reconcile}.
+     */
+    public void releaseImages() {
+        order = ids(images);
+        images = new ArrayList<>();
+        thumbnails = new ArrayList<>();
+    }
+
+    // Pixel arrays of the displayed plane (every channel of a composite)
+    private static Object[] displayedPlanes(ImagePlus imp) {
+        if (!imp.isComposite()) return new Object[]{imp.getProcessor().getPixels()};
+        ImageStack stack = imp.getStack();
+        Object[] planes = new Object[imp.getNChannels()];
+        for (int c = 1; c <= planes.length; c++) {
+            planes[c - 1] = stack.getPixels(imp.getStackIndex(c, imp.getZ(), imp.getT()));
+        }
+        return planes;
+    }
+
+    private static List<Integer> ids(List<ImagePlus> images) {
+        List<Integer> ids = new ArrayList<>();
+        for (ImagePlus imp : images) ids.add(imp.getID());
+        return ids;
+    }
+
     public List<ImagePlus> getOrderedImages() {
         return new ArrayList<>(images);
     }
 
-    private BufferedImage toBufferedImage(ImagePlus imp) {
-        ImageProcessor ip = imp.getProcessor().convertToRGB();
-        ip = ip.resize(THUMB_W, THUMB_H, true);
+    // Converted and shrunk like a montage tile, so thumbnails do not depend on the kernel switch
+    static BufferedImage toBufferedImage(ImagePlus imp) {
         BufferedImage bi = new BufferedImage(THUMB_W, THUMB_H, BufferedImage.TYPE_INT_RGB);
-        bi.getGraphics().drawImage(ip.createImage(), 0, 0, null);
+        ImageProcessor rgb = MontageProcessor.toRGBTile(imp);
+        int w = rgb.getWidth();
+        int h = rgb.getHeight();
+        int[] thumb = (int[]) rgb.getPixels();
+        if (w != THUMB_W || h != THUMB_H) {
+            PixelKernels.Resampler resampler = PixelKernels.Resampler.forImageJResize(w, h, THUMB_W, THUMB_H);
+            if (PixelKernels.isEnabled() && resampler != null) {
+                thumb = resampler.apply(thumb);
+            } else {
+                // A fresh processor, since an RGB image's own one carries its ROI
+                thumb = (int[]) new ColorProcessor(w, h, thumb).resize(THUMB_W, THUMB_H, true).getPixels();
+            }
+        }
+        bi.setRGB(0, 0, THUMB_W, THUMB_H, thumb, 0, THUMB_W);
         return bi;
     }
 
@@ -134,6 +216,7 @@ public class ThumbnailPanel extends JPanel {
                     images.add(dropTargetIndex, tempImg);
                     BufferedImage tempThumb = thumbnails.remove(dragSourceIndex);
                     thumbnails.add(dropTargetIndex, tempThumb);
+                    order = ids(images);
                     if (onOrderChanged != null) onOrderChanged.run();
                 }
                 dragSourceIndex = -1;
@@ -152,4 +235,28 @@ public class ThumbnailPanel extends JPanel {
         addMouseListener(mouseAdapter);
         addMouseMotionListener(mouseAdapter);
     }
-}
\ No newline at end of file
+
+    private static final class Thumb {
+        // Weak, so a kept thumbnail does not hold on to a closed image's pixels
+        final List<WeakReference<Object>> planes = new ArrayList<>();
+        final long sparse;
+        final long hash;
+        final BufferedImage image;
+
+        Thumb(Object[] planes, long sparse, long hash, BufferedImage image) {
+            for (Object plane : planes) this.planes.add(new WeakReference<>(plane));
+            this.sparse = sparse;
+            this.hash = hash;
+            this.image = image;
+        }
+
+        // Compares pixel arrays by identity
+        boolean matches(Object[] planes, long sparse) {
+            if (this.sparse != sparse || this.planes.size() != planes.length) return false;
+            for (int i = 0; i < planes.length; i++) {
+                if (this.planes.get(i).get() != planes[i]) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package insta_montage;
+
+import ij.process.ColorProcessor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory LRU of prepared tiles, keyed like {@link RenderCache} tile
+ * entries and capped in bytes. The montage dialog keeps one for the session
+ * so re-rendering after a settings change skips flatten and resize for
+ * unchanged images. Cached tiles are shared and must not be drawn on.
+ */
+public class TileMemoryCache {
+
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private final LinkedHashMap<String, ColorProcessor> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long bytes;
+
+    public TileMemoryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** A cache capped by -Dinsta_montage.tileMemoryMB (default 256). */
+    public static TileMemoryCache withDefaultCap() {
+        return new TileMemoryCache(defaultMaxBytes());
+    }
+
+    /** The tile memory budget: -Dinsta_montage.tileMemoryMB, or 256 MB. */
+    public static long defaultMaxBytes() {
+        String mb = System.getProperty("insta_montage.tileMemoryMB");
+        if (mb != null) {
+            try {
+                return Long.parseLong(mb.trim()) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                // Keep the default
+            }
+        }
+        return DEFAULT_MAX_BYTES;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized ColorProcessor get(String key) {
+        return tiles.get(key);
+    }
+
+    public synchronized void put(String key, ColorProcessor tile) {
+        long size = sizeOf(tile);
+        if (size > maxBytes) return;
+        ColorProcessor old = tiles.put(key, tile);
+        if (old != null) bytes -= sizeOf(old);
+        bytes += size;
+        trimTo(maxBytes);
+    }
+
+    /** Drops least recently used tiles until at most {@code limit} bytes are held. */
+    public synchronized void trimTo(long limit) {
+        Iterator<Map.Entry<String, ColorProcessor>> it = tiles.entrySet().iterator();
+        while (bytes > limit && it.hasNext()) {
+            bytes -= sizeOf(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    private static long sizeOf(ColorProcessor tile) {
+        return (long) tile.getWidth() * tile.getHeight() * 4;
+    }
+}
@@ -0,0 +1,67 @@
+package insta_montage;
+
+import ij.IJ;
+import ij.gui.GenericDialog;
+import ij.plugin.PlugIn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class WatchFolderPlugin implements PlugIn {
+
+    // One watcher per session; running the command again offers to stop it
+    private static WatchFolderService service;
+
+    public void run(String arg) {
+        if (service != null && service.isRunning()) {
+            if (IJ.showMessageWithCancel(Main.PLUGIN_NAME, "A watch folder is running.\nStop it?")) {
+                service.stop();
+                service = null;
+            }
+            return;
+        }
+
+        GenericDialog gd = new GenericDialog(Main.PLUGIN_NAME + " Watch Folder");
+        gd.addDirectoryField("Acquisition folder:", IJ.getDirectory("current"));
+        gd.addStringField("Channels (comma separated):", "DAPI,GFP,YFP,Cy7", 30);
+        gd.addFileField("Recipe (optional):", "");
+        gd.addMessage("Montages use the recipe if one is given, otherwise the settings of the\n"
+            + "open Insta Montage dialog, and are saved to <folder>/montages.");
+        gd.showDialog();
+        if (gd.wasCanceled()) return;
+
+        File root = new File(gd.getNextString());
+        if (!root.isDirectory()) {
+            IJ.error(Main.PLUGIN_NAME, "Not a folder: " + root);
+            return;
+        }
+        List<String> channels = new ArrayList<>();
+        for (String token : gd.getNextString().split(",")) {
+            if (!token.trim().isEmpty()) channels.add(token.trim());
+        }
+        String recipe = gd.getNextString().trim();
+        if (channels.isEmpty()) {
+            IJ.error(Main.PLUGIN_NAME, "Please list at least one channel.");
+            return;
+        }
+
+        MontageSettings settings;
+        try {
+            settings = recipe.isEmpty()
+                ? MontageDialog.getCurrentSettings() : MontageRecipe.load(new File(recipe));
+        } catch (IOException e) {
+            IJ.error(Main.PLUGIN_NAME, "Could not read recipe: " + e.getMessage());
+            return;
+        }
+
+        service = new WatchFolderService(root.toPath(), channels, settings);
+        try {
+            service.start();
+        } catch (IOException e) {
+            IJ.error(Main.PLUGIN_NAME, "Could not watch folder: " + e.getMessage());
+            service = null;
+        }
+    }
+}
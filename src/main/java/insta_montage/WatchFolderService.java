@@ -0,0 +1,240 @@
+package insta_montage;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.ColorProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches an acquisition folder and builds a montage for every sample
+ * sub-folder as soon as its expected channel files are complete.
+ *
+ * Every file event restarts a quiet-period timer for its folder. When the
+ * timer fires, the folder is only rendered if all channels are present and
+ * their sizes have not changed since the previous check, so half-written
+ * TIFFs are never opened. Rendering runs on a small pool with a bounded
+ * queue; when the queue is full the folder is simply checked again later.
+ */
+public class WatchFolderService {
+
+    // Folder must be quiet this long before it is considered complete
+    private static final long QUIET_MILLIS = 2000;
+
+    private static final int QUEUE_CAPACITY = 16;
+
+    private final Path root;
+    private final Path outputDir;
+    private final List<String> channels;
+    private final MontageSettings recipe;
+
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final Map<Path, ScheduledFuture<?>> pendingChecks = new ConcurrentHashMap<>();
+    private final Map<Path, Map<Path, Long>> lastSizes = new ConcurrentHashMap<>();
+    private final Set<Path> done = ConcurrentHashMap.newKeySet();
+
+    private WatchService watcher;
+    private Thread watchThread;
+    private ScheduledExecutorService scheduler;
+    private ThreadPoolExecutor renderPool;
+
+    public WatchFolderService(Path root, List<String> channels, MontageSettings recipe) {
+        this.root = root;
+        this.outputDir = root.resolve("montages");
+        this.channels = new ArrayList<>(channels);
+        this.recipe = recipe;
+    }
+
+    public synchronized void start() throws IOException {
+        if (watcher != null) return;
+        Files.createDirectories(outputDir);
+        watcher = FileSystems.getDefault().newWatchService();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "Insta Montage watch debounce"));
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        renderPool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> daemon(r, "Insta Montage watch render"));
+
+        register(root);
+        File[] existing = root.toFile().listFiles(File::isDirectory);
+        if (existing != null) {
+            for (File dir : existing) {
+                if (dir.toPath().equals(outputDir)) continue;
+                register(dir.toPath());
+                scheduleCheck(dir.toPath());
+            }
+        }
+
+        watchThread = daemon(this::watchLoop, "Insta Montage watch folder");
+        watchThread.start();
+        IJ.log("Insta Montage: watching " + root + " for " + String.join(", ", channels));
+    }
+
+    public synchronized void stop() {
+        if (watcher == null) return;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        scheduler.shutdownNow();
+        renderPool.shutdown();
+        watcher = null;
+        IJ.log("Insta Montage: stopped watching " + root);
+    }
+
+    public boolean isRunning() {
+        return watcher != null;
+    }
+
+    private void register(Path dir) throws IOException {
+        WatchKey key = dir.register(watcher,
+            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedDirs.put(key, dir);
+    }
+
+    private void watchLoop() {
+        WatchService ws = watcher;
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                Path dir = watchedDirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+                    Path child = dir.resolve((Path) event.context());
+                    if (dir.equals(root)) {
+                        // New sample folder
+                        if (Files.isDirectory(child) && !child.equals(outputDir)) {
+                            try {
+                                register(child);
+                            } catch (IOException e) {
+                                // Skip this folder (e.g. removed again), keep watching the rest
+                                IJ.log("Insta Montage: cannot watch " + child + ": " + e.getMessage());
+                                continue;
+                            }
+                            scheduleCheck(child);
+                        }
+                    } else {
+                        scheduleCheck(dir);
+                    }
+                }
+                if (!key.reset()) watchedDirs.remove(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Service stopped
+        }
+    }
+
+    // Restarts the quiet-period timer for a sample folder
+    private void scheduleCheck(Path folder) {
+        if (done.contains(folder) || scheduler.isShutdown()) return;
+        ScheduledFuture<?> previous = pendingChecks.put(folder,
+            scheduler.schedule(() -> check(folder), QUIET_MILLIS, TimeUnit.MILLISECONDS));
+        if (previous != null) previous.cancel(false);
+    }
+
+    private void check(Path folder) {
+        pendingChecks.remove(folder);
+        List<Path> files = findChannelFiles(folder);
+        if (files == null) return; // still incomplete, wait for more events
+
+        // Sizes must be stable across two checks to rule out files still being written
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path f : files) sizes.put(f, f.toFile().length());
+        Map<Path, Long> previous = lastSizes.put(folder, sizes);
+        if (!sizes.equals(previous)) {
+            scheduleCheck(folder);
+            return;
+        }
+
+        if (!done.add(folder)) return;
+        try {
+            renderPool.execute(() -> render(folder, files));
+        } catch (RejectedExecutionException e) {
+            // Queue full: back off and try again after another quiet period
+            done.remove(folder);
+            scheduleCheck(folder);
+        }
+    }
+
+    // Returns one file per expected channel, in channel order, or null if any is missing
+    private List<Path> findChannelFiles(Path folder) {
+        File[] candidates = folder.toFile().listFiles((d, name) -> {
+            String lower = name.toLowerCase(Locale.ROOT);
+            return lower.endsWith(".tif") || lower.endsWith(".tiff");
+        });
+        if (candidates == null) return null;
+        List<Path> files = new ArrayList<>();
+        for (String channel : channels) {
+            String token = channel.toLowerCase(Locale.ROOT);
+            Path match = null;
+            for (File f : candidates) {
+                if (f.getName().toLowerCase(Locale.ROOT).contains(token)) {
+                    match = f.toPath();
+                    break;
+                }
+            }
+            if (match == null) return null;
+            files.add(match);
+        }
+        return files;
+    }
+
+    // Failures are logged and the folder is released, so a later change to its files retries it
+    private void render(Path folder, List<Path> files) {
+        long start = System.currentTimeMillis();
+        String name = folder.getFileName() + "_montage.tif";
+        try {
+            LazySource[] sources = new LazySource[files.size()];
+            for (int i = 0; i < sources.length; i++) sources[i] = new LazySource(files.get(i).toString());
+
+            MontageProcessor processor = new MontageProcessor(sources, recipe);
+            processor.setRenderCache(RenderCache.getDefault());
+            ColorProcessor canvas = processor.render();
+            String path = outputDir.resolve(name).toString();
+            if (new FileSaver(new ImagePlus(name, canvas)).saveAsTiff(path)) {
+                IJ.log("Insta Montage: " + name + " saved in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            } else {
+                IJ.log("Insta Montage: could not save " + path);
+                done.remove(folder);
+            }
+        } catch (UncheckedIOException e) {
+            IJ.log("Insta Montage: " + folder.getFileName() + ": " + e.getCause().getMessage());
+            done.remove(folder);
+        } catch (RuntimeException e) {
+            IJ.log("Insta Montage: " + folder.getFileName() + " failed: " + e);
+            done.remove(folder);
+        }
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -0,0 +1,158 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.stream.IntStream;
+
+/**
+ * Max, mean or sum projection over a Z range, used directly as a tile source.
+ *
+ * Planes are streamed one at a time into one accumulator per channel, and
+ * each plane is folded in parallel row bands. Sums and means accumulate in
+ * double, which is exact for integer planes far beyond any slice count. Neither a projected stack nor
+ * a copy of the source stack is built, and on a virtual stack each plane is
+ * read from disk only as it is reached. The result is a one-slice image with
+ * the source's LUTs and display ranges (scaled by the slice count for sums).
+ */
+public class ZProjection {
+
+    public static final String PLANE = "Plane";
+    public static final String[] METHODS = {PLANE, "Max", "Mean", "Sum"};
+
+    // Rows per parallel work unit
+    private static final int BAND_ROWS = 64;
+
+    private ZProjection() {
+    }
+
+    public static boolean isProjection(String method) {
+        return method != null && !PLANE.equalsIgnoreCase(method);
+    }
+
+    /**
+     * Projection of the current frame of {@code imp} over all its channels,
+     * or {@code imp} itself when there is nothing to project (Plane mode, a
+     * single slice, or RGB).
+     */
+    public static ImagePlus project(ImagePlus imp, String method, int zStart, int zEnd) {
+        if (!isProjection(method) || imp.getNSlices() <= 1 || imp.getBitDepth() == 24) return imp;
+        int[] channels = new int[imp.getNChannels()];
+        for (int c = 0; c < channels.length; c++) channels[c] = c + 1;
+        return project(imp, channels, imp.getT(), method, zStart, zEnd);
+    }
+
+    /** Projects the given 1-based channels of frame {@code t} over slices zStart..zEnd (0 = last). */
+    static ImagePlus project(ImagePlus imp, int[] channels, int t, String method, int zStart, int zEnd) {
+        int nSlices = imp.getNSlices();
+        int z0 = Math.max(1, Math.min(zStart, nSlices));
+        int z1 = zEnd <= 0 ? nSlices : Math.max(z0, Math.min(zEnd, nSlices));
+        int count = z1 - z0 + 1;
+        boolean max = "Max".equalsIgnoreCase(method);
+        boolean sum = "Sum".equalsIgnoreCase(method);
+
+        int w = imp.getWidth();
+        int h = imp.getHeight();
+        ImageStack stack = imp.getStack();
+        Object[] acc = new Object[channels.length];
+        for (int z = z0; z <= z1; z++) {
+            for (int k = 0; k < channels.length; k++) {
+                Object plane = stack.getPixels(imp.getStackIndex(channels[k], z, t));
+                if (acc[k] == null) {
+                    acc[k] = max ? copy(plane) : new double[w * h];
+                    if (max) continue;
+                }
+                fold(plane, acc[k], max, w, h);
+            }
+        }
+
+        ImageStack out = new ImageStack(w, h);
+        for (int k = 0; k < channels.length; k++) {
+            out.addSlice(null, max ? processor(acc[k], w, h) : finish((double[]) acc[k], count, sum, imp.getBitDepth(), w, h));
+        }
+        return LazySource.wrap(imp, out, channels, sum ? count : 1);
+    }
+
+    // Folds one plane into the accumulator, one band of rows per task
+    private static void fold(Object plane, Object acc, boolean max, int w, int h) {
+        int bands = (h + BAND_ROWS - 1) / BAND_ROWS;
+        IntStream.range(0, bands).parallel().forEach(b -> {
+            int from = b * BAND_ROWS * w;
+            int to = Math.min(h, (b + 1) * BAND_ROWS) * w;
+            if (max) {
+                foldMax(plane, acc, from, to);
+            } else {
+                foldSum(plane, (double[]) acc, from, to);
+            }
+        });
+    }
+
+    private static void foldMax(Object plane, Object acc, int from, int to) {
+        if (plane instanceof byte[]) {
+            byte[] src = (byte[]) plane;
+            byte[] dst = (byte[]) acc;
+            for (int i = from; i < to; i++) {
+                if ((src[i] & 0xff) > (dst[i] & 0xff)) dst[i] = src[i];
+            }
+        } else if (plane instanceof short[]) {
+            short[] src = (short[]) plane;
+            short[] dst = (short[]) acc;
+            for (int i = from; i < to; i++) {
+                if ((src[i] & 0xffff) > (dst[i] & 0xffff)) dst[i] = src[i];
+            }
+        } else {
+            float[] src = (float[]) plane;
+            float[] dst = (float[]) acc;
+            for (int i = from; i < to; i++) {
+                if (src[i] > dst[i]) dst[i] = src[i];
+            }
+        }
+    }
+
+    private static void foldSum(Object plane, double[] acc, int from, int to) {
+        if (plane instanceof byte[]) {
+            byte[] src = (byte[]) plane;
+            for (int i = from; i < to; i++) acc[i] += src[i] & 0xff;
+        } else if (plane instanceof short[]) {
+            short[] src = (short[]) plane;
+            for (int i = from; i < to; i++) acc[i] += src[i] & 0xffff;
+        } else {
+            float[] src = (float[]) plane;
+            for (int i = from; i < to; i++) acc[i] += src[i];
+        }
+    }
+
+    // Sums become float; means go back to the source type so the LUT kernels apply
+    private static ImageProcessor finish(double[] acc, int count, boolean sum, int bitDepth, int w, int h) {
+        if (sum) return new FloatProcessor(w, h, acc);
+        if (bitDepth == 8) {
+            byte[] px = new byte[acc.length];
+            for (int i = 0; i < px.length; i++) px[i] = (byte) Math.round(acc[i] / count);
+            return new ByteProcessor(w, h, px);
+        }
+        if (bitDepth == 16) {
+            short[] px = new short[acc.length];
+            for (int i = 0; i < px.length; i++) px[i] = (short) Math.round(acc[i] / count);
+            return new ShortProcessor(w, h, px, null);
+        }
+        float[] px = new float[acc.length];
+        for (int i = 0; i < px.length; i++) px[i] = (float) (acc[i] / count);
+        return new FloatProcessor(w, h, px);
+    }
+
+    private static ImageProcessor processor(Object pixels, int w, int h) {
+        if (pixels instanceof byte[]) return new ByteProcessor(w, h, (byte[]) pixels);
+        if (pixels instanceof short[]) return new ShortProcessor(w, h, (short[]) pixels, null);
+        return new FloatProcessor(w, h, (float[]) pixels);
+    }
+
+    private static Object copy(Object pixels) {
+        if (pixels instanceof byte[]) return ((byte[]) pixels).clone();
+        if (pixels instanceof short[]) return ((short[]) pixels).clone();
+        return ((float[]) pixels).clone();
+    }
+}
@@ -0,0 +1,49 @@
+package insta_montage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class BatchCoordinatorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void hungWorkerIsKilledAndTheJobRetried() throws Exception {
+        // Reading the header of a FIFO nobody writes to blocks forever
+        File fifo = new File(tmp.getRoot(), "hang.tif");
+        boolean made;
+        try {
+            made = new ProcessBuilder("mkfifo", fifo.getPath()).start().waitFor() == 0;
+        } catch (IOException e) {
+            made = false;
+        }
+        assumeTrue(made);
+
+        BatchCoordinator coordinator = new BatchCoordinator(TestImages.textFree(), 1, 64);
+        coordinator.setJobTimeout(2);
+        BatchCoordinator.Job job = new BatchCoordinator.Job(1,
+            new File(tmp.getRoot(), "out.tif").getPath(), Collections.singletonList(fifo.getPath()));
+
+        long start = System.currentTimeMillis();
+        List<BatchCoordinator.JobResult> results = coordinator.run(Collections.singletonList(job));
+        assertTrue(System.currentTimeMillis() - start < 60_000);
+
+        assertEquals(1, results.size());
+        BatchCoordinator.JobResult r = results.get(0);
+        assertFalse(r.ok);
+        assertEquals(BatchCoordinator.MAX_ATTEMPTS, r.attempts);
+        assertTrue(r.message, r.message.contains("no reply within 2 s"));
+    }
+}
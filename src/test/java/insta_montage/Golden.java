@@ -0,0 +1,132 @@
+package insta_montage;
+
+import ij.process.ColorProcessor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Pixel-exact comparison against golden references in
+ * src/test/resources/golden. Small montages are stored as PNG, large ones
+ * as a SHA-256 of their size and RGB pixels. Only RGB is compared: ImageJ
+ * leaves alpha at 0 in resized tiles, and PNG drops it.
+ *
+ * Run with -Dinsta_montage.updateGolden=true to (re)write the references
+ * after an intended change in output. On a mismatch the actual montage is
+ * written to target/golden-failures for inspection.
+ */
+final class Golden {
+
+    private static final boolean UPDATE = Boolean.getBoolean("insta_montage.updateGolden");
+    private static final File SOURCE_DIR = new File("src/test/resources/golden");
+    private static final File FAILURE_DIR = new File("target/golden-failures");
+
+    private Golden() {
+    }
+
+    static void assertImage(String name, ColorProcessor actual) throws IOException {
+        String file = name + ".png";
+        if (UPDATE) {
+            write(actual, new File(SOURCE_DIR, file));
+            return;
+        }
+        BufferedImage expected;
+        try (InputStream in = resource(file).openStream()) {
+            expected = ImageIO.read(in);
+        }
+        int w = actual.getWidth();
+        int h = actual.getHeight();
+        if (expected.getWidth() != w || expected.getHeight() != h) {
+            write(actual, new File(FAILURE_DIR, file));
+            fail(name + ": size " + w + "x" + h + ", expected " + expected.getWidth() + "x" + expected.getHeight());
+        }
+        int[] want = expected.getRGB(0, 0, w, h, null, 0, w);
+        int[] got = (int[]) actual.getPixels();
+        int differing = 0;
+        for (int i = 0; i < got.length; i++) {
+            if (((want[i] ^ got[i]) & 0xffffff) != 0) differing++;
+        }
+        if (differing > 0) {
+            write(actual, new File(FAILURE_DIR, file));
+            fail(name + ": " + differing + " pixels differ from the golden reference");
+        }
+    }
+
+    static void assertDigest(String name, ColorProcessor actual) throws IOException {
+        String file = name + ".sha256";
+        String digest = digest(actual);
+        if (UPDATE) {
+            SOURCE_DIR.mkdirs();
+            Files.write(new File(SOURCE_DIR, file).toPath(), (digest + "\n").getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        String expected;
+        try (InputStream in = resource(file).openStream()) {
+            expected = new String(readAll(in), StandardCharsets.US_ASCII).trim();
+        }
+        if (!expected.equals(digest)) write(actual, new File(FAILURE_DIR, name + ".png"));
+        assertEquals(name + ": montage differs from the golden digest", expected, digest);
+    }
+
+    static String digest(ColorProcessor cp) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        int[] pixels = (int[]) cp.getPixels();
+        byte[] buf = new byte[8 + pixels.length * 3];
+        int p = 0;
+        for (int v : new int[]{cp.getWidth(), cp.getHeight()}) {
+            buf[p++] = (byte) (v >> 24);
+            buf[p++] = (byte) (v >> 16);
+            buf[p++] = (byte) (v >> 8);
+            buf[p++] = (byte) v;
+        }
+        for (int v : pixels) {
+            buf[p++] = (byte) (v >> 16);
+            buf[p++] = (byte) (v >> 8);
+            buf[p++] = (byte) v;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest(buf)) sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
+    private static URL resource(String file) {
+        URL url = Golden.class.getResource("/golden/" + file);
+        assertNotNull("missing golden reference " + file + " (run with -Dinsta_montage.updateGolden=true)", url);
+        return url;
+    }
+
+    private static void write(ColorProcessor cp, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        int w = cp.getWidth();
+        int h = cp.getHeight();
+        BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        bi.setRGB(0, 0, w, h, (int[]) cp.getPixels(), 0, w);
+        ImageIO.write(bi, "png", file);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+}
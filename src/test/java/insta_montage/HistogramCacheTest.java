@@ -0,0 +1,47 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import org.junit.Test;
+
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramCacheTest {
+
+    @Test
+    public void cacheIsCappedAndClosedImagesAreDropped() throws Exception {
+        int planes = HistogramCache.MAX_ENTRIES + 44;
+        ImageStack stack = new ImageStack(32, 32);
+        for (int z = 0; z < planes; z++) {
+            ByteProcessor bp = new ByteProcessor(32, 32);
+            bp.setValue(z % 256);
+            bp.fill();
+            stack.addSlice(bp);
+        }
+        ImagePlus imp = new ImagePlus("stack", stack);
+        imp.setDimensions(1, planes, 1);
+        HistogramCache cache = new HistogramCache();
+        try {
+            CountDownLatch delivered = new CountDownLatch(planes);
+            for (int z = 1; z <= planes; z++) {
+                imp.setPosition(1, z, 1);
+                cache.request(imp, 1, Color.GREEN, image -> delivered.countDown());
+            }
+            assertTrue(delivered.await(30, TimeUnit.SECONDS));
+            assertEquals(HistogramCache.MAX_ENTRIES, cache.size());
+
+            cache.imageClosed(imp);
+            SwingUtilities.invokeAndWait(() -> { });
+            assertEquals(0, cache.size());
+        } finally {
+            cache.dispose();
+        }
+    }
+}
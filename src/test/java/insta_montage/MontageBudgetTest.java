@@ -0,0 +1,93 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocation and wall-time budgets per montage, with and without the pixel
+ * kernels. Allocation is counted per tile, net of the canvas, in units of
+ * one tile's RGB pixels; each budget sits less than one tile above what a
+ * render allocates today, so an extra full-size copy per tile fails it.
+ * Times are the best of a few warm renders against generous limits.
+ */
+@RunWith(Parameterized.class)
+public class MontageBudgetTest {
+
+    private static final int RUNS = 3;
+
+    @Parameterized.Parameters(name = "kernels={0}")
+    public static Collection<Object[]> kernels() {
+        return Arrays.asList(new Object[][]{{true}, {false}});
+    }
+
+    private final boolean kernels;
+    private boolean wasEnabled;
+
+    public MontageBudgetTest(boolean kernels) {
+        this.kernels = kernels;
+    }
+
+    @Before
+    public void setKernels() {
+        wasEnabled = PixelKernels.isEnabled();
+        PixelKernels.setEnabled(kernels);
+    }
+
+    @After
+    public void restoreKernels() {
+        PixelKernels.setEnabled(wasEnabled);
+    }
+
+    @Test
+    public void colorBlocksGrid() {
+        // No resize: one RGB rendering per tile
+        assertBudget("color-blocks", TestImages.colorBlocks(), TestImages.textFree(), 1.25, 1.25, 250);
+    }
+
+    @Test
+    public void generatedCompositesScaledDown() {
+        // Three-channel blend plus an averaging shrink per tile
+        MontageSettings s = TestImages.textFree();
+        s.rows = 3;
+        s.cols = 4;
+        s.borderThickness = 6;
+        s.expandCanvas = false;
+        assertBudget("generated-composites", TestImages.composites(12, 1024, 768, 3), s, 14.5, 12.0, 5000);
+    }
+
+    private void assertBudget(String name, ImagePlus[] images, MontageSettings s,
+                              double kernelTiles, double imageJTiles, long maxMillis) {
+        new MontageProcessor(images, s).render(); // warm up
+
+        long bestNanos = Long.MAX_VALUE;
+        long leastBytes = Long.MAX_VALUE;
+        ColorProcessor montage = null;
+        for (int run = 0; run < RUNS; run++) {
+            long bytes = TestImages.allocatedBytes();
+            long start = System.nanoTime();
+            montage = new MontageProcessor(images, s).render();
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            leastBytes = Math.min(leastBytes, TestImages.allocatedBytes() - bytes);
+        }
+
+        long canvasBytes = (long) montage.getWidth() * montage.getHeight() * 4;
+        double tileBytes = (double) canvasBytes / images.length;
+        double perTile = (leastBytes - canvasBytes) / (double) images.length / tileBytes;
+        double budget = kernels ? kernelTiles : imageJTiles;
+        assertTrue(String.format("%s allocates %.2f tiles per tile, budget %.2f", name, perTile, budget),
+            perTile <= budget);
+
+        long millis = bestNanos / 1000000;
+        assertTrue(name + " took " + millis + " ms, budget " + maxMillis + " ms", millis <= maxMillis);
+    }
+}
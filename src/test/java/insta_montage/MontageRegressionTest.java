@@ -0,0 +1,154 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pixel-exact montage output against golden references, once with the
+ * pixel kernels and once through the plain ImageJ path. Both must give the
+ * same image. Labels and scale-bar text are left out because glyphs depend
+ * on the platform's fonts.
+ */
+@RunWith(Parameterized.class)
+public class MontageRegressionTest {
+
+    @Parameterized.Parameters(name = "kernels={0}")
+    public static Collection<Object[]> kernels() {
+        return Arrays.asList(new Object[][]{{true}, {false}});
+    }
+
+    private final boolean kernels;
+    private boolean wasEnabled;
+
+    public MontageRegressionTest(boolean kernels) {
+        this.kernels = kernels;
+    }
+
+    @Before
+    public void setKernels() {
+        wasEnabled = PixelKernels.isEnabled();
+        PixelKernels.setEnabled(kernels);
+    }
+
+    @After
+    public void restoreKernels() {
+        PixelKernels.setEnabled(wasEnabled);
+    }
+
+    @Test
+    public void colorBlocksGrid() throws IOException {
+        MontageSettings s = TestImages.textFree();
+        Golden.assertImage("color-blocks-grid", new MontageProcessor(TestImages.colorBlocks(), s).render());
+    }
+
+    @Test
+    public void colorBlocksScaledDownRow() throws IOException {
+        MontageSettings s = TestImages.textFree();
+        s.rows = 1;
+        s.cols = 4;
+        s.borderThickness = 8;
+        s.borderColor = Color.BLACK;
+        s.expandCanvas = false;
+        Golden.assertImage("color-blocks-row-scaled", new MontageProcessor(TestImages.colorBlocks(), s).render());
+    }
+
+    @Test
+    public void colorBlocksFromDiskMatchInMemory() throws IOException {
+        LazySource[] sources = new LazySource[TestImages.COLOR_BLOCKS.length];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = new LazySource(TestImages.colorBlockPath(TestImages.COLOR_BLOCKS[i]));
+        }
+        Golden.assertImage("color-blocks-grid", new MontageProcessor(sources, TestImages.textFree()).render());
+    }
+
+    @Test
+    public void generatedCompositesScaledDown() throws IOException {
+        MontageSettings s = TestImages.textFree();
+        s.rows = 3;
+        s.cols = 4;
+        s.borderThickness = 6;
+        s.expandCanvas = false;
+        ImagePlus[] images = TestImages.composites(12, 1024, 768, 3);
+        Golden.assertDigest("generated-composites-scaled", new MontageProcessor(images, s).render());
+    }
+
+    @Test
+    public void generatedSplitChannels() throws IOException {
+        MontageSettings s = TestImages.textFree();
+        s.rows = 1;
+        s.cols = 5;
+        ImagePlus imp = TestImages.composite("split.tif", 800, 600, 4, 7);
+        Golden.assertDigest("generated-split-channels", MontageProcessor.splitChannels(imp, s).render());
+        s.grayscaleChannels = true;
+        Golden.assertDigest("generated-split-channels-gray", MontageProcessor.splitChannels(imp, s).render());
+    }
+
+    @Test
+    public void generatedRoiInsets() throws IOException {
+        MontageSettings s = TestImages.textFree();
+        s.rows = 2;
+        s.cols = 3;
+        s.roiInsets = true;
+        s.insetOutlineColor = Color.GRAY;
+
+        Random random = new Random(11);
+        byte[] gray = new byte[640 * 480];
+        random.nextBytes(gray);
+        ImagePlus a = new ImagePlus("a.tif", new ByteProcessor(640, 480, gray));
+        a.setRoi(new Roi(100, 80, 60, 30));
+        int[] rgb = new int[640 * 480];
+        for (int i = 0; i < rgb.length; i++) rgb[i] = 0xff000000 | random.nextInt(0x1000000);
+        ImagePlus b = new ImagePlus("b.tif", new ColorProcessor(640, 480, rgb));
+        b.setRoi(new Roi(500, 400, 130, 70));
+        ImagePlus c = new ImagePlus("c.tif", new ByteProcessor(640, 480, gray.clone()));
+
+        Golden.assertDigest("generated-roi-insets", new MontageProcessor(new ImagePlus[]{a, b, c}, s).render());
+    }
+
+    @Test
+    public void scaleBarGoesOnChosenImageWhenInsetsAreAdded() {
+        MontageSettings s = TestImages.textFree();
+        s.rows = 1;
+        s.cols = 4;
+        s.borderThickness = 0;
+        s.roiInsets = true;
+        s.insetOutline = false;
+        s.scaleBarImageIndex = 1;
+        ImagePlus[] images = TestImages.colorBlocks();
+        images = new ImagePlus[]{images[0], images[1], images[2]};
+        images[0].setRoi(new Roi(100, 100, 64, 64)); // tiles: image 0, its inset, image 1, image 2
+
+        ColorProcessor without = new MontageProcessor(images, s).render();
+        s.showScaleBar = true;
+        ColorProcessor with = new MontageProcessor(images, s).render();
+
+        int tileW = without.getWidth() / 4;
+        for (int tile = 0; tile < 4; tile++) {
+            boolean changed = false;
+            for (int y = 0; y < without.getHeight() && !changed; y++) {
+                for (int x = tile * tileW; x < (tile + 1) * tileW; x++) {
+                    if (without.get(x, y) != with.get(x, y)) {
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+            assertEquals("scale bar on tile " + tile, tile == 2, changed);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package insta_montage;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.gui.OvalRoi;
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import org.junit.Test;
+
+import java.awt.Color;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PixelHashTest {
+
+    @Test
+    public void equalOverlaysHashAlike() {
+        ImagePlus a = image(overlay(new Roi(10, 10, 20, 20), Color.YELLOW));
+        ImagePlus b = image(overlay(new Roi(10, 10, 20, 20), Color.YELLOW));
+        assertEquals(PixelHash.of(a), PixelHash.of(b));
+        assertEquals(RenderCache.tileKey(a, 32, 32), RenderCache.tileKey(b, 32, 32));
+    }
+
+    @Test
+    public void overlayContentChangesHash() {
+        long plain = PixelHash.of(image(null));
+        long rect = PixelHash.of(image(overlay(new Roi(10, 10, 20, 20), Color.YELLOW)));
+        long moved = PixelHash.of(image(overlay(new Roi(11, 10, 20, 20), Color.YELLOW)));
+        long recoloured = PixelHash.of(image(overlay(new Roi(10, 10, 20, 20), Color.RED)));
+        long oval = PixelHash.of(image(overlay(new OvalRoi(10, 10, 20, 20), Color.YELLOW)));
+        assertNotEquals(plain, rect);
+        assertNotEquals(rect, moved);
+        assertNotEquals(rect, recoloured);
+        assertNotEquals(rect, oval);
+    }
+
+    @Test
+    public void activeChannelsChangeHash() {
+        CompositeImage ci = TestImages.composite("c.tif", 64, 48, 3, 3);
+        long all = PixelHash.of(ci);
+        ci.setActiveChannels("101");
+        long some = PixelHash.of(ci);
+        CompositeImage same = TestImages.composite("c.tif", 64, 48, 3, 3);
+        same.setActiveChannels("101");
+        assertNotEquals(all, some);
+        assertEquals(some, PixelHash.of(same));
+    }
+
+    @Test
+    public void sparseSignatureSeesDisplayChanges() {
+        ImagePlus imp = image(null);
+        long before = PixelHash.sparse(imp);
+        assertEquals(before, PixelHash.sparse(image(null)));
+        imp.setDisplayRange(10, 200);
+        assertNotEquals(before, PixelHash.sparse(imp));
+    }
+
+    @Test
+    public void samePixelsComparesEveryDisplayedPlane() {
+        assertTrue(PixelHash.samePixels(image(null), image(null)));
+        ImagePlus edited = image(null);
+        edited.getProcessor().set(63, 63, 7);
+        assertFalse(PixelHash.samePixels(image(null), edited));
+        assertFalse(PixelHash.samePixels(image(null), new ImagePlus("o.tif", new ByteProcessor(32, 128))));
+        assertFalse(PixelHash.samePixels(image(null), null));
+
+        CompositeImage a = TestImages.composite("c.tif", 64, 48, 3, 3);
+        CompositeImage b = TestImages.composite("c.tif", 64, 48, 3, 3);
+        assertTrue(PixelHash.samePixels(a, b));
+        b.getStack().getProcessor(b.getStackIndex(3, 1, 1)).set(0, 0, 1234);
+        assertFalse(PixelHash.samePixels(a, b));
+    }
+
+    @Test
+    public void identicalTilesAreStillShared() {
+        ImagePlus[] images = {image(null), image(null), image(null)};
+        images[2].getProcessor().set(0, 0, 99);
+        MontageProcessor processor = new MontageProcessor(images, TestImages.textFree());
+        processor.render();
+        assertEquals(1, processor.getDedupHits());
+    }
+
+    private static Overlay overlay(Roi roi, Color color) {
+        roi.setStrokeColor(color);
+        return new Overlay(roi);
+    }
+
+    private static ImagePlus image(Overlay overlay) {
+        byte[] pixels = new byte[64 * 64];
+        for (int i = 0; i < pixels.length; i++) pixels[i] = (byte) i;
+        ImagePlus imp = new ImagePlus("o.tif", new ByteProcessor(64, 64, pixels));
+        imp.setOverlay(overlay);
+        return imp;
+    }
+}
@@ -0,0 +1,135 @@
+package insta_montage;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+import ij.process.ShortProcessor;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Pixel kernels against the ImageJ calls they replace when switched off:
+ * map (single-channel display), blend (composite flatten) and Resampler
+ * (tile resize), and the blend's parallel blocks against the same blend on
+ * one thread. Each case checks that both give the same pixels, then prints
+ * the best time of a few runs. Not part of the default test run:
+ *
+ *   mvn test -Dtest=PixelKernelsBenchmark
+ */
+public class PixelKernelsBenchmark {
+
+    private static final int SIZE = 2048;
+    private static final int WARMUP = 3;
+    private static final int RUNS = 10;
+
+    @Test
+    public void map() {
+        short[] pixels = new short[SIZE * SIZE];
+        Random random = new Random(1);
+        for (int i = 0; i < pixels.length; i++) pixels[i] = (short) random.nextInt(4096);
+        ImageProcessor ip = new ShortProcessor(SIZE, SIZE, pixels, null);
+        ip.setLut(LUT.createLutFromColor(Color.GREEN));
+        ip.setMinAndMax(100, 3500);
+        ImagePlus imp = new ImagePlus("map", ip);
+
+        compare("map 16-bit " + SIZE + "x" + SIZE,
+            () -> (int[]) PixelKernels.toRGB(imp).getPixels(),
+            () -> (int[]) imp.getProcessor().convertToRGB().getPixels());
+    }
+
+    @Test
+    public void blend() {
+        CompositeImage ci = TestImages.composite("blend", SIZE, SIZE, 4, 2);
+        compare("blend 4 x 16-bit " + SIZE + "x" + SIZE,
+            () -> (int[]) PixelKernels.toRGB(ci).getPixels(),
+            () -> {
+                // A montage flattens each image once, so do not reuse the last composite
+                ci.setChannelsUpdated();
+                return (int[]) ci.flatten().getProcessor().getPixels();
+            });
+    }
+
+    @Test
+    public void blendAcrossCores() {
+        CompositeImage ci = TestImages.composite("blend", SIZE, SIZE, 4, 2);
+        ForkJoinPool oneThread = new ForkJoinPool(1);
+        try {
+            // Parallel streams started inside a pool run in that pool
+            compare("blend 4 x 16-bit " + SIZE + "x" + SIZE, "common pool ("
+                    + ForkJoinPool.commonPool().getParallelism() + " threads)",
+                () -> (int[]) PixelKernels.toRGB(ci).getPixels(),
+                "one thread", () -> oneThread.submit(() -> (int[]) PixelKernels.toRGB(ci).getPixels()).join());
+        } finally {
+            oneThread.shutdown();
+        }
+    }
+
+    @Test
+    public void resampleDown() {
+        resample(1000, 750);
+    }
+
+    @Test
+    public void resampleUp() {
+        resample(3000, 2250);
+    }
+
+    private static void resample(int dw, int dh) {
+        int[] pixels = new int[SIZE * SIZE];
+        Random random = new Random(3);
+        for (int i = 0; i < pixels.length; i++) pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        ColorProcessor cp = new ColorProcessor(SIZE, SIZE, pixels);
+        cp.setInterpolationMethod(ImageProcessor.NONE);
+        // Built once per plan and reused for every tile, as in a montage
+        PixelKernels.Resampler resampler = PixelKernels.Resampler.forImageJResize(SIZE, SIZE, dw, dh);
+
+        compare("resample " + SIZE + "x" + SIZE + " to " + dw + "x" + dh,
+            () -> resampler.apply(pixels),
+            () -> (int[]) cp.resize(dw, dh, true).getPixels());
+    }
+
+    private static void compare(String name, Supplier<int[]> kernel, Supplier<int[]> imageJ) {
+        compare(name, "kernels", kernel, "ImageJ", imageJ);
+    }
+
+    private static void compare(String name, String fastName, Supplier<int[]> fast,
+                                String baseName, Supplier<int[]> base) {
+        boolean wasEnabled = PixelKernels.isEnabled();
+        PixelKernels.setEnabled(true);
+        try {
+            assertArrayEquals(name, mask(base.get()), mask(fast.get()));
+            double on = bestMillis(fast);
+            double off = bestMillis(base);
+            System.out.printf("%-40s %s %8.2f ms   %s %8.2f ms   %5.2fx%n",
+                name, fastName, on, baseName, off, off / on);
+        } finally {
+            PixelKernels.setEnabled(wasEnabled);
+        }
+    }
+
+    private static double bestMillis(Supplier<int[]> task) {
+        for (int i = 0; i < WARMUP; i++) task.get();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            task.get();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    // Alpha differs between paths and never reaches the montage
+    private static int[] mask(int[] rgb) {
+        int[] out = new int[rgb.length];
+        for (int i = 0; i < rgb.length; i++) out[i] = rgb[i] & 0xffffff;
+        return out;
+    }
+}
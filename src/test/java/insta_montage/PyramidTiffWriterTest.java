@@ -0,0 +1,113 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class PyramidTiffWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closingEarlyDeletesTheFile() throws IOException {
+        File file = new File(folder.getRoot(), "early.tif");
+        PyramidTiffWriter writer = new PyramidTiffWriter(file, 600, 400);
+        writer.writeRows(new int[600 * 100], 0, 100);
+        try {
+            writer.close();
+            fail("closed with rows missing");
+        } catch (IOException expected) {
+            // Incomplete
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void failedExportLeavesNoFile() {
+        File file = new File(folder.getRoot(), "failed.tif");
+        LazySource[] sources = new LazySource[TestImages.COLOR_BLOCKS.length];
+        for (int i = 0; i < sources.length; i++) {
+            boolean broken = i == 2;
+            sources[i] = new LazySource(TestImages.colorBlockPath(TestImages.COLOR_BLOCKS[i])) {
+                @Override
+                public ImagePlus load(String method, int zStart, int zEnd) throws IOException {
+                    if (broken) throw new IOException("unreadable");
+                    return super.load(method, zStart, zEnd);
+                }
+            };
+        }
+        try {
+            new MontageProcessor(sources, TestImages.textFree()).exportPyramid(file);
+            fail("export succeeded with an unreadable source");
+        } catch (IOException expected) {
+            // Reported to the caller
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void completeExportMatchesRender() throws IOException {
+        File file = new File(folder.getRoot(), "ok.tif");
+        MontageProcessor processor = new MontageProcessor(TestImages.colorBlocks(), TestImages.textFree());
+        processor.exportPyramid(file);
+        ColorProcessor rendered = processor.render();
+        int[] level0 = readLevel0(file, rendered.getWidth(), rendered.getHeight());
+        int[] expected = (int[]) rendered.getPixels();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("pixel " + i, expected[i] & 0xffffff, level0[i]);
+        }
+    }
+
+    // Level 0 of a pyramid written by PyramidTiffWriter (ImageJ 1.x reads no BigTIFF)
+    private static int[] readLevel0(File file, int w, int h) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        int ifd = (int) buf.getLong(8);
+        long entries = buf.getLong(ifd);
+        int width = 0;
+        int height = 0;
+        long count = 0;
+        long offsets = 0;
+        for (int e = 0; e < entries; e++) {
+            int at = ifd + 8 + e * 20;
+            int tag = buf.getShort(at) & 0xffff;
+            if (tag == 256) width = buf.getInt(at + 12);
+            if (tag == 257) height = buf.getInt(at + 12);
+            if (tag == 324) {
+                count = buf.getLong(at + 4);
+                offsets = buf.getLong(at + 12);
+            }
+        }
+        assertEquals(w, width);
+        assertEquals(h, height);
+        int tile = PyramidTiffWriter.TILE;
+        int across = (w + tile - 1) / tile;
+        assertEquals((long) across * ((h + tile - 1) / tile), count);
+
+        int[] rgb = new int[w * h];
+        for (int t = 0; t < count; t++) {
+            int data = (int) (count == 1 ? offsets : buf.getLong((int) offsets + t * 8));
+            int x0 = t % across * tile;
+            int y0 = t / across * tile;
+            for (int y = 0; y < tile && y0 + y < h; y++) {
+                for (int x = 0; x < tile && x0 + x < w; x++) {
+                    int p = data + (y * tile + x) * 3;
+                    rgb[(y0 + y) * w + x0 + x] = (buf.get(p) & 0xff) << 16 | (buf.get(p + 1) & 0xff) << 8 | buf.get(p + 2) & 0xff;
+                }
+            }
+        }
+        return rgb;
+    }
+}
@@ -0,0 +1,130 @@
+package insta_montage;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.ColorProcessor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RenderCacheTest {
+
+    // One 10x10 entry on disk: header plus pixels
+    private static final long ENTRY_BYTES = 12 + 10 * 10 * 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evictsLeastRecentlyUsedOverCap() {
+        RenderCache cache = new RenderCache(folder.getRoot(), 2 * ENTRY_BYTES);
+        cache.put("a", tile(1));
+        cache.put("b", tile(2));
+        assertNotNull(cache.get("a"));
+        cache.put("c", tile(3));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.get("c").get(0, 0) & 0xffffff);
+        assertEquals(2, entryCount());
+    }
+
+    @Test
+    public void countsEntriesWrittenByAnotherInstance() {
+        new RenderCache(folder.getRoot(), 3 * ENTRY_BYTES).put("old", tile(1));
+
+        RenderCache cache = new RenderCache(folder.getRoot(), 2 * ENTRY_BYTES);
+        cache.put("a", tile(2));
+        cache.put("b", tile(3));
+
+        assertNull(cache.get("old"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertEquals(2, entryCount());
+    }
+
+    @Test
+    public void montageHitDecodesNoSource() throws IOException {
+        RenderCache cache = new RenderCache(folder.getRoot(), 64L * 1024 * 1024);
+        AtomicInteger loads = new AtomicInteger();
+        MontageProcessor first = new MontageProcessor(colorBlocks(loads), TestImages.textFree());
+        first.setRenderCache(cache);
+        ColorProcessor rendered = first.render();
+        assertEquals(TestImages.COLOR_BLOCKS.length, loads.get());
+
+        loads.set(0);
+        MontageProcessor again = new MontageProcessor(colorBlocks(loads), TestImages.textFree());
+        again.setRenderCache(cache);
+        ColorProcessor cached = again.render();
+        assertEquals(0, loads.get());
+        assertArrayEquals((int[]) rendered.getPixels(), (int[]) cached.getPixels());
+    }
+
+    // Color-block sources that count their decodes
+    private static LazySource[] colorBlocks(AtomicInteger loads) {
+        LazySource[] sources = new LazySource[TestImages.COLOR_BLOCKS.length];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = new LazySource(TestImages.colorBlockPath(TestImages.COLOR_BLOCKS[i])) {
+                @Override
+                public ImagePlus load(String method, int zStart, int zEnd) throws IOException {
+                    loads.incrementAndGet();
+                    return super.load(method, zStart, zEnd);
+                }
+            };
+        }
+        return sources;
+    }
+
+    @Test
+    public void writeBehindServesQueuedEntriesAndKeepsACopy() throws InterruptedException {
+        RenderCache cache = new RenderCache(folder.getRoot(), 64L * 1024 * 1024);
+        cache.setWriteBehind(true);
+        ColorProcessor cp = tile(5);
+        cache.put("a", cp);
+        cp.set(0, 0, 9); // the caller keeps drawing
+        assertEquals(5, cache.get("a").get(0, 0) & 0xffffff);
+
+        cache.flush();
+        assertEquals(1, entryCount());
+        assertEquals(5, new RenderCache(folder.getRoot(), 64L * 1024 * 1024).get("a").get(0, 0) & 0xffffff);
+        cache.setWriteBehind(false);
+    }
+
+    @Test
+    public void savedImageEditedInPlaceGetsANewKey() throws IOException {
+        File file = folder.newFile("saved.tif");
+        assertTrue(new FileSaver(TestImages.colorBlocks()[0]).saveAsTiff(file.getPath()));
+        ImagePlus imp = IJ.openImage(file.getPath());
+        String before = RenderCache.tileKey(imp, 64, 64);
+
+        // Like a macro that writes pixels without marking the image changed
+        imp.getProcessor().set(10, 10, 255 - imp.getProcessor().get(10, 10));
+        assertFalse(imp.changes);
+        assertNotEquals(before, RenderCache.tileKey(imp, 64, 64));
+    }
+
+    private int entryCount() {
+        File[] files = folder.getRoot().listFiles((d, name) -> name.endsWith(".rgb"));
+        return files == null ? 0 : files.length;
+    }
+
+    private static ColorProcessor tile(int rgb) {
+        ColorProcessor cp = new ColorProcessor(10, 10);
+        cp.setColor(rgb);
+        cp.fill();
+        return cp;
+    }
+}
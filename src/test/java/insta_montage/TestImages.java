@@ -0,0 +1,107 @@
+package insta_montage;
+
+import ij.CompositeImage;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.LUT;
+import ij.process.ShortProcessor;
+
+import java.awt.Color;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Random;
+
+/** Test inputs: the color-blocks demo images and seeded generated composites. */
+final class TestImages {
+
+    static final String[] COLOR_BLOCKS = {"DAPI", "GFP", "YFP", "Cy7"};
+
+    private static final Color[] CHANNEL_COLORS = {Color.BLUE, Color.GREEN, Color.MAGENTA, Color.RED};
+
+    private TestImages() {
+    }
+
+    /** Path of a file under src/test/resources. */
+    static String resourcePath(String name) {
+        URL url = TestImages.class.getResource("/" + name);
+        if (url == null) throw new IllegalStateException("missing test resource " + name);
+        try {
+            return new File(url.toURI()).getPath();
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String colorBlockPath(String name) {
+        return resourcePath("demo-images/color-blocks/" + name + ".tif");
+    }
+
+    static ImagePlus[] colorBlocks() {
+        ImagePlus[] images = new ImagePlus[COLOR_BLOCKS.length];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = IJ.openImage(colorBlockPath(COLOR_BLOCKS[i]));
+            if (images[i] == null) throw new IllegalStateException("could not open " + COLOR_BLOCKS[i]);
+        }
+        return images;
+    }
+
+    /**
+     * A 16-bit composite with smooth structure plus noise, the same for the
+     * same seed, with coloured LUTs and per-channel display ranges.
+     */
+    static CompositeImage composite(String title, int w, int h, int channels, long seed) {
+        Random random = new Random(seed);
+        ImageStack stack = new ImageStack(w, h);
+        for (int c = 0; c < channels; c++) {
+            short[] px = new short[w * h];
+            double fx = 0.01 + random.nextDouble() * 0.05;
+            double fy = 0.01 + random.nextDouble() * 0.05;
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    double v = 1800 + 1500 * Math.sin(x * fx + c) * Math.cos(y * fy - c);
+                    px[y * w + x] = (short) Math.max(0, Math.min(4095, (int) v + random.nextInt(200)));
+                }
+            }
+            stack.addSlice("C" + (c + 1), new ShortProcessor(w, h, px, null));
+        }
+        ImagePlus imp = new ImagePlus(title, stack);
+        imp.setDimensions(channels, 1, 1);
+        imp.getCalibration().pixelWidth = 0.25;
+        imp.getCalibration().setUnit("um");
+        CompositeImage ci = new CompositeImage(imp, IJ.COMPOSITE);
+        for (int c = 1; c <= channels; c++) {
+            ci.setC(c);
+            ci.setChannelLut(LUT.createLutFromColor(CHANNEL_COLORS[(c - 1) % CHANNEL_COLORS.length]));
+            ci.setDisplayRange(100 * c, 3600 - 100 * c);
+        }
+        ci.setC(1);
+        return ci;
+    }
+
+    static ImagePlus[] composites(int count, int w, int h, int channels) {
+        ImagePlus[] images = new ImagePlus[count];
+        for (int i = 0; i < count; i++) images[i] = composite("gen" + i + ".tif", w, h, channels, 1000 + i);
+        return images;
+    }
+
+    /** Settings without text, whose rendering depends on the platform's fonts. */
+    static MontageSettings textFree() {
+        MontageSettings s = new MontageSettings();
+        s.showLabels = false;
+        s.showScaleBar = false;
+        return s;
+    }
+
+    /** Bytes allocated so far by all live threads (rendering fans out to the common pool). */
+    static long allocatedBytes() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : mx.getThreadAllocatedBytes(mx.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,40 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ThumbnailPanelTest {
+
+    @Test
+    public void thumbnailsDoNotDependOnTheKernelSwitch() {
+        int[] rgb = new int[300 * 200];
+        for (int i = 0; i < rgb.length; i++) rgb[i] = 0xff000000 | i * 7919;
+        ImagePlus[] images = {
+            TestImages.colorBlocks()[1],
+            TestImages.composite("c.tif", 400, 300, 3, 4),
+            TestImages.composite("small.tif", 40, 30, 2, 5),
+            new ImagePlus("rgb.tif", new ColorProcessor(300, 200, rgb))
+        };
+        boolean wasEnabled = PixelKernels.isEnabled();
+        try {
+            for (ImagePlus imp : images) {
+                PixelKernels.setEnabled(true);
+                int[] on = pixels(ThumbnailPanel.toBufferedImage(imp));
+                PixelKernels.setEnabled(false);
+                int[] off = pixels(ThumbnailPanel.toBufferedImage(imp));
+                assertArrayEquals(imp.getTitle(), off, on);
+            }
+        } finally {
+            PixelKernels.setEnabled(wasEnabled);
+        }
+    }
+
+    private static int[] pixels(BufferedImage bi) {
+        return bi.getRGB(0, 0, bi.getWidth(), bi.getHeight(), null, 0, bi.getWidth());
+    }
+}
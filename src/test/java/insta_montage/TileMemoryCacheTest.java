@@ -0,0 +1,46 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class TileMemoryCacheTest {
+
+    @Test
+    public void rgbSourceAtTileSizeIsCachedAsCopy() {
+        int[] pixels = new int[64 * 48];
+        for (int i = 0; i < pixels.length; i++) pixels[i] = 0xff000000 | i * 997;
+        ImagePlus imp = new ImagePlus("rgb.tif", new ColorProcessor(64, 48, pixels));
+        MontageSettings s = TestImages.textFree();
+        s.rows = 1;
+        s.cols = 1;
+        TileMemoryCache memory = new TileMemoryCache(1 << 20);
+
+        MontageProcessor processor = new MontageProcessor(new ImagePlus[]{imp}, s);
+        processor.setTileMemory(memory);
+        processor.render();
+
+        ColorProcessor cached = memory.get(RenderCache.tileKey(imp, 64, 48));
+        assertNotNull(cached);
+        assertNotSame(pixels, cached.getPixels());
+        assertArrayEquals(pixels, (int[]) cached.getPixels());
+    }
+
+    @Test
+    public void leastRecentlyUsedTilesAreDroppedFirst() {
+        TileMemoryCache memory = new TileMemoryCache(2 * 10 * 10 * 4);
+        memory.put("a", new ColorProcessor(10, 10));
+        memory.put("b", new ColorProcessor(10, 10));
+        memory.get("a");
+        memory.put("c", new ColorProcessor(10, 10));
+        assertNotNull(memory.get("a"));
+        assertNull(memory.get("b"));
+        assertEquals(2 * 10 * 10 * 4, memory.getBytes());
+    }
+}
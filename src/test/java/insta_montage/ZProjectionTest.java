@@ -0,0 +1,75 @@
+package insta_montage;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.process.ColorProcessor;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ZProjectionTest {
+
+    @Test
+    public void meanOfManyBrightSlicesIsExact() {
+        int w = 64;
+        int h = 32;
+        int slices = 600;
+        Random random = new Random(5);
+        ImageStack stack = new ImageStack(w, h);
+        long[] sums = new long[w * h];
+        for (int z = 0; z < slices; z++) {
+            short[] px = new short[w * h];
+            for (int i = 0; i < px.length; i++) {
+                px[i] = (short) (60000 + random.nextInt(5536));
+                sums[i] += px[i] & 0xffff;
+            }
+            stack.addSlice(null, px);
+        }
+        ImagePlus imp = new ImagePlus("z.tif", stack);
+
+        short[] mean = (short[]) ZProjection.project(imp, "Mean", 1, 0).getProcessor().getPixels();
+        for (int i = 0; i < sums.length; i++) {
+            assertEquals("pixel " + i, Math.round((double) sums[i] / slices), mean[i] & 0xffff);
+        }
+    }
+
+    @Test
+    public void projectedTilesMatchProjectingEachImageFirst() {
+        ImagePlus[] stacks = new ImagePlus[5];
+        ImagePlus[] projected = new ImagePlus[stacks.length];
+        for (int n = 0; n < stacks.length; n++) {
+            stacks[n] = zStack("s" + n + ".tif", 160, 120, 7, n);
+            projected[n] = ZProjection.project(stacks[n], "Max", 2, 6);
+        }
+        stacks[1].setRoi(new Roi(20, 20, 40, 30));
+        projected[1].setRoi(new Roi(20, 20, 40, 30));
+        MontageSettings s = TestImages.textFree();
+        s.rows = 2;
+        s.cols = 3;
+        s.roiInsets = true;
+
+        ColorProcessor expected = new MontageProcessor(projected, s).render();
+        s.tileSource = "Max";
+        s.zStart = 2;
+        s.zEnd = 6;
+        ColorProcessor actual = new MontageProcessor(stacks, s).render();
+        assertArrayEquals((int[]) expected.getPixels(), (int[]) actual.getPixels());
+    }
+
+    private static ImagePlus zStack(String title, int w, int h, int slices, long seed) {
+        Random random = new Random(seed);
+        ImageStack stack = new ImageStack(w, h);
+        for (int z = 0; z < slices; z++) {
+            short[] px = new short[w * h];
+            for (int i = 0; i < px.length; i++) px[i] = (short) random.nextInt(4096);
+            stack.addSlice(null, px);
+        }
+        ImagePlus imp = new ImagePlus(title, stack);
+        imp.setDisplayRange(0, 4095);
+        return imp;
+    }
+}